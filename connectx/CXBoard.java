@@ -19,8 +19,7 @@
 package connectx;
 
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.Random;
 //import java.util.stream.Collectors;
 
 /**
@@ -47,18 +46,37 @@ public class CXBoard {
 	 */
 	public final int X;
 
-	// grid for the board
-	protected CXCellState[][] B;
-
-	protected LinkedList<CXCell> MC;   // Marked Cells stack (used to undo)
+	// Bitboard layout: column j uses bits j*H .. j*H+M-1 (bottom row first) plus
+	// one always-free sentinel bit on top, so that shifts never wrap a line
+	// from one column into the next one. Boards of more than 64 bits use the
+	// same layout over several words: bit k is bit k%64 of word k/64
+	private final int H;
+	private final boolean bitboard;   // true if N*(M+1) <= 64: one word per player
+	private final int[]   DIR;        // bit shifts of the directions that can hold X symbols
+	private final long    BOTTOM;     // lowest bit of each column
+	private final long    FULL;       // all the bits of the cells (no sentinels)
+	private final long[]  RUN;        // work array of winningCells
+	protected long        BB[];       // one bitmask per player (one-word boards)
+	protected long        MB[][];     // one multi-word bitmask per player (larger boards)
+
+	protected int                MC[]; // Marked Cells stack (column of each move, used to undo)
+	protected int                mc;   // Number of marked cells
 	protected int                RP[]; // First free row position
-	protected TreeSet<Integer>   AC;   // Availabe (not full) columns
+	protected long               AC[]; // Availabe (not full) columns, one bit per column
+	protected int                ac;   // Number of available columns
 	
 	// we define characters for players (PR for Red, PY for Yellow)
 	private final CXCellState[] Player = {CXCellState.P1, CXCellState.P2};
 
 	protected int currentPlayer; // currentPlayer plays next move
 
+	// Zobrist keys: one random key for each (player, cell) pair, indexed by
+	// (p*N + j)*M + i, and one key for the second player to move
+	private final long[] ZK;
+	private final long   ZS;
+	protected long       hash;   // Zobrist hash of the current position
+	protected long       mirror; // Zobrist hash of the position mirrored left to right
+
 	protected CXGameState gameState; // game state
 
 
@@ -83,38 +101,106 @@ public class CXBoard {
 		this.N = N;
 		this.X = X;
 
-		B  = new CXCellState[M][N];
-		MC = new LinkedList<CXCell>();
+		this.H        = M + 1;
+		this.bitboard = N * H <= 64;
+		this.DIR      = directions();
+		long bottom = 0;
+		for (int j = 0; bitboard && j < N; j++)
+			bottom |= 1L << j * H;
+		this.BOTTOM   = bottom;
+		this.FULL     = bottom * ((1L << M) - 1);
+		this.RUN      = new long[X];
+
+		// Keys only depend on the board size, so hashes are reproducible across games
+		Random rand = new Random(((long) M << 32) ^ N);
+		ZK = new long[2*M*N];
+		for (int k = 0; k < ZK.length; k++)
+			ZK[k] = rand.nextLong();
+		ZS = rand.nextLong();
+
+		BB = new long[2];
+		MB = new long[2][bitboard ? 0 : (N*H + 63) >>> 6];
+		MC = new int[M*N];
 		RP = new int[N];
-		AC = new TreeSet<Integer>();
+		AC = new long[(N+63)/64];
 		reset();
 
 	}
 
+	// Copy constructor: clones the state arrays and shares the immutable ones
+	private CXBoard(CXBoard C) {
+		this.M        = C.M;
+		this.N        = C.N;
+		this.X        = C.X;
+		this.H        = C.H;
+		this.bitboard = C.bitboard;
+		this.DIR      = C.DIR;
+		this.BOTTOM   = C.BOTTOM;
+		this.FULL     = C.FULL;
+		this.RUN      = new long[X];
+		this.ZK       = C.ZK;
+		this.ZS       = C.ZS;
+
+		BB = C.BB.clone();
+		MB = new long[][] {C.MB[0].clone(), C.MB[1].clone()};
+		MC = C.MC.clone();
+		mc = C.mc;
+		RP = C.RP.clone();
+		AC = C.AC.clone();
+		ac = C.ac;
+
+		currentPlayer = C.currentPlayer;
+		gameState     = C.gameState;
+		hash          = C.hash;
+		mirror        = C.mirror;
+	}
+
 	/**
 	 * Resets the CXBoard
 	 */
 	public void reset() {
 		currentPlayer = 0;
 		gameState     = CXGameState.OPEN;
+		hash          = 0;
+		mirror        = 0;
 		initBoard();
 		initDataStructures();
 	}
 
 	// Sets to free all board cells
 	private void initBoard() {
-		for (int i = 0; i < M; i++)
-			for (int j = 0; j < N; j++)
-				B[i][j] = CXCellState.FREE; 
+		BB[0] = BB[1] = 0;
+		Arrays.fill(MB[0], 0);
+		Arrays.fill(MB[1], 0);
+	}
+
+	// Bit shifts (vertical, horizontal, diagonal, anti-diagonal) of the
+	// directions long enough to contain X aligned symbols
+	private int[] directions() {
+		int[] D = new int[4];
+		int   n = 0;
+		if (X <= M) D[n++] = 1;
+		if (X <= N) D[n++] = H;
+		if (X <= M && X <= N) {
+			D[n++] = H - 1;
+			D[n++] = H + 1;
+		}
+		return Arrays.copyOf(D, n);
+	}
+
+	// Bit index of cell i,j
+	private int bit(int i, int j) {
+		return j * H + (M - 1 - i);
 	}
 
 	//Resets the marked cells list and other data structures
 	private void initDataStructures() {
-		this.MC.clear();
-		this.AC.clear();
+		this.mc = 0;
+		this.ac = N;
+		Arrays.fill(AC, 0);
 		for (int j = 0; j < N; j++) {
 			RP[j] = M-1;
-			AC.add(j);
+			AC[j >>> 6] |= 1L << j;
 		}
 	}
 
@@ -131,8 +217,17 @@ public class CXBoard {
 	public CXCellState cellState(int i, int j) throws IndexOutOfBoundsException {
 		if (i < 0 || i >= M || j < 0 || j >= N)
 			throw new IndexOutOfBoundsException("Indexes " + i + "," + j + " are out of matrix bounds");
-		else
-			return B[i][j];
+		else if (!bitboard) {
+			int k = bit(i, j);
+			if ((MB[0][k >>> 6] & (1L << k)) != 0) return CXCellState.P1;
+			if ((MB[1][k >>> 6] & (1L << k)) != 0) return CXCellState.P2;
+			return CXCellState.FREE;
+		} else {
+			long b = 1L << bit(i, j);
+			if ((BB[0] & b) != 0) return CXCellState.P1;
+			if ((BB[1] & b) != 0) return CXCellState.P2;
+			return CXCellState.FREE;
+		}
 	}
 
 	/**
@@ -152,10 +247,12 @@ public class CXBoard {
 	 * @return CXCell object or null
 	 */
 	public CXCell getLastMove() {
-		if (MC.size() == 0) 
+		if (mc == 0) 
 			return null;
-		else 
-			return MC.peekLast();
+		else {
+			int col = MC[mc-1];
+			return new CXCell(RP[col]+1, col, Player[(mc-1) % 2]);
+		}
 	}
 
 	/**
@@ -176,13 +273,66 @@ public class CXBoard {
 		return currentPlayer;
 	}
 
+	/**
+	 * Returns the Zobrist hash of the current position.
+	 * <p>
+	 * The hash is updated incrementally by <code>markColumn</code> and
+	 * <code>unmarkColumn</code> and also encodes the player to move. Boards
+	 * of the same size share the same keys.
+	 * </p>
+	 *
+	 * @return 64-bit position key
+	 */
+	public long hash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the current position mirrored left to
+	 * right (column <code>j</code> becomes column <code>N-1-j</code>).
+	 *
+	 * @return 64-bit key of the mirrored position
+	 */
+	public long mirrorHash() {
+		return mirror;
+	}
+
+	/**
+	 * Returns a key shared by the current position and its mirror image.
+	 * <p>
+	 * The canonical key is the smaller of <code>hash()</code> and
+	 * <code>mirrorHash()</code>: mirrored positions have the same value for
+	 * both players, so tables indexed by this key store them once. Moves
+	 * stored with the key refer to the canonical board and must be converted
+	 * with <code>canonicalColumn</code>.
+	 * </p>
+	 *
+	 * @return 64-bit canonical position key
+	 */
+	public long canonicalHash() {
+		return Math.min(hash, mirror);
+	}
+
+	/**
+	 * Converts a column between the current board and the canonical one, in
+	 * both directions.
+	 *
+	 * @param col column index, or -1 for no move
+	 *
+	 * @return <code>N-1-col</code> if the canonical key is the mirrored one,
+	 * <code>col</code> otherwise (or if <code>col</code> is -1)
+	 */
+	public int canonicalColumn(int col) {
+		return col >= 0 && mirror < hash ? N-1-col : col;
+	}
+
 	/**
 	 * Returns the number of free cells in the game board.
 	 *
 	 * @return number of free cells
 	 */
 	public int numOfFreeCells() {
-		return M*N-MC.size();
+		return M*N-mc;
 	}
 	
 	/**
@@ -191,7 +341,7 @@ public class CXBoard {
 	 * @return number of marked cells
 	 */
 	public int numOfMarkedCells() {
-		return MC.size();
+		return mc;
 	}
 
 	/**
@@ -207,19 +357,7 @@ public class CXBoard {
 		} else if (RP[col] == -1) {          // Column full
 			throw new IllegalStateException("Column " + col + " is full.");
 		} else {
-			int row = RP[col]--;
-			if (RP[col] == -1) AC.remove(col);
-			B[row][col] = Player[currentPlayer];
-			CXCell newc = new CXCell(row, col, Player[currentPlayer]);
-			MC.add(newc); // Add move to the history
-
-			currentPlayer = (currentPlayer + 1) % 2;
-
-			if (isWinningMove(row, col))
-				gameState = B[row][col] == CXCellState.P1 ? CXGameState.WINP1 : CXGameState.WINP2;
-			else if (MC.size() == M * N)
-				gameState = CXGameState.DRAW;
-
+			play(col);
 			return gameState;
 		}
 	}
@@ -230,18 +368,80 @@ public class CXBoard {
 	 * @throws IllegalStateException If there is no move to undo
 	 */
 	public void unmarkColumn() throws IllegalStateException {
-		if (MC.size() == 0) {
+		if (mc == 0) {
 			throw new IllegalStateException("No move to undo");
 		} else {
-			CXCell oldc = MC.removeLast();
+			undo();
+		}
+	}
 
-			B[oldc.i][oldc.j] = CXCellState.FREE;
-			RP[oldc.j]++;
-			if(RP[oldc.j] == 0) AC.add(oldc.j); 
+	/**
+	 * Mark the first free cell on the selected column, without any check.
+	 * <p>
+	 * Fast path of <code>markColumn</code> for search engines, which only
+	 * play available columns of open games (e.g. the ones returned by
+	 * <code>getAvailableColumns</code>): on an ended game or a full or
+	 * invalid column the board is corrupted, or an unchecked exception is
+	 * thrown. The state of the board is updated as by <code>markColumn</code>.
+	 * </p>
+	 *
+	 * @param col available column
+	 *
+	 * @return true if the move wins the game
+	 */
+	public boolean play(int col) {
+		int row = RP[col]--;
+		if (row == 0) {
+			AC[col >>> 6] &= ~(1L << col);
+			ac--;
+		}
+		boolean win;
+		if (bitboard) {
+			BB[currentPlayer] |= 1L << bit(row, col);
+			win = isAligned(BB[currentPlayer]);
+		} else {
+			int k = bit(row, col);
+			MB[currentPlayer][k >>> 6] |= 1L << k;
+			win = isAligned(MB[currentPlayer], k);
+		}
+		MC[mc++] = col; // Add move to the history
+		hash   ^= ZK[(currentPlayer*N + col)*M + row] ^ ZS;
+		mirror ^= ZK[(currentPlayer*N + N-1-col)*M + row] ^ ZS;
 
-			currentPlayer = (currentPlayer + 1) % 2;
-			gameState = CXGameState.OPEN;
+		if (win)
+			gameState = currentPlayer == 0 ? CXGameState.WINP1 : CXGameState.WINP2;
+		else if (mc == M * N)
+			gameState = CXGameState.DRAW;
+
+		currentPlayer ^= 1;
+		return win;
+	}
+
+	/**
+	 * Undo last move, without any check.
+	 * <p>
+	 * Fast path of <code>unmarkColumn</code> for search engines: there must be
+	 * a move to undo.
+	 * </p>
+	 */
+	public void undo() {
+		int col = MC[--mc];
+		int row = ++RP[col];
+
+		currentPlayer ^= 1;
+		hash   ^= ZK[(currentPlayer*N + col)*M + row] ^ ZS;
+		mirror ^= ZK[(currentPlayer*N + N-1-col)*M + row] ^ ZS;
+
+		if (bitboard)
+			BB[currentPlayer] &= ~(1L << bit(row, col));
+		else
+			MB[currentPlayer][bit(row, col) >>> 6] &= ~(1L << bit(row, col));
+		if (row == 0) {
+			AC[col >>> 6] |= 1L << col;
+			ac++;
 		}
+
+		gameState = CXGameState.OPEN;
 	}
 
 	/**
@@ -254,7 +454,13 @@ public class CXBoard {
 	 * @return List of marked cells
 	 */
 	public CXCell[] getMarkedCells() {
-		return MC.toArray(new CXCell[MC.size()]);
+		CXCell[] L  = new CXCell[mc];
+		int[]    rp = new int[N];
+
+		Arrays.fill(rp, M-1);
+		for (int k = 0; k < mc; k++)
+			L[k] = new CXCell(rp[MC[k]]--, MC[k], Player[k % 2]);
+		return L;
 	}
 
 	/**
@@ -266,9 +472,125 @@ public class CXBoard {
    * @return List of available column indexes 
    */
   public Integer[] getAvailableColumns() {
-		return AC.toArray(new Integer[AC.size()]);
+		Integer[] L = new Integer[ac];
+		for (int k = 0, j = nextAvailableColumn(0); j != -1; j = nextAvailableColumn(j+1))
+			L[k++] = j;
+		return L;
   }
 
+	/**
+	 * Stores the still available columns, in increasing order, in the head of
+	 * the given array.
+	 *
+	 * @param L array of at least <code>numOfAvailableColumns()</code> elements
+	 *
+	 * @return Number of available columns stored in <code>L</code>
+	 */
+	public int getAvailableColumns(int[] L) {
+		int k = 0;
+		for (int w = 0; w < AC.length; w++)
+			for (long m = AC[w]; m != 0; m &= m - 1)
+				L[k++] = (w << 6) + Long.numberOfTrailingZeros(m);
+		return k;
+	}
+
+	/**
+	 * Returns the first available column starting from <code>col</code>.
+	 * <p>
+	 * Available columns can be visited without allocations with
+	 * <code>for (int j = B.nextAvailableColumn(0); j != -1; j = B.nextAvailableColumn(j+1))</code>
+	 * </p>
+	 *
+	 * @param col first column to be checked
+	 *
+	 * @return The smallest available column index &gt;= <code>col</code>, or -1
+	 */
+	public int nextAvailableColumn(int col) {
+		if (col < 0) col = 0;
+		int w = col >>> 6;
+		if (w >= AC.length)
+			return -1;
+		long m = AC[w] & (-1L << col);
+		while (m == 0) {
+			if (++w == AC.length)
+				return -1;
+			m = AC[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(m);
+	}
+
+	/**
+	 * Returns the number of still available columns.
+	 *
+	 * @return number of not full columns
+	 */
+	public int numOfAvailableColumns() {
+		return ac;
+	}
+
+	/**
+	 * Stores in the head of the given array the available columns where
+	 * <code>player</code> would align X symbols by marking the first free
+	 * cell, in increasing order.
+	 * <p>
+	 * The board is not modified. When the board fits in a single 64-bit word
+	 * (N*(M+1) &lt;= 64) the cells are found with a few bitmask operations, on
+	 * every column at once; on larger boards the first free cell of each
+	 * available column is checked in place, one column at a time. If the game
+	 * has ended there are no such columns.
+	 * </p>
+	 *
+	 * @param player 0 (first player) or 1 (second player)
+	 * @param L array of at least <code>numOfAvailableColumns()</code> elements
+	 *
+	 * @return Number of winning columns stored in <code>L</code>
+	 */
+	public int getWinningColumns(int player, int[] L) {
+		return winningColumns(player, L);
+	}
+
+	/**
+	 * Returns the number of available columns where <code>player</code>
+	 * would align X symbols by marking the first free cell.
+	 *
+	 * @param player 0 (first player) or 1 (second player)
+	 *
+	 * @return number of winning columns
+	 */
+	public int numOfWinningColumns(int player) {
+		return winningColumns(player, null);
+	}
+
+	/**
+	 * Stores in the head of the given array the available columns where the
+	 * current player can move without letting the adversary win with the
+	 * next move, in increasing order.
+	 * <p>
+	 * A column is excluded if the adversary can win elsewhere (the move does
+	 * not block) or right above the marked cell. There are no such columns if
+	 * the adversary can win in two different columns. The winning moves of the
+	 * current player are not taken into account: check them first with
+	 * <code>getWinningColumns</code>.
+	 * </p>
+	 *
+	 * @param L array of at least <code>numOfAvailableColumns()</code> elements
+	 *
+	 * @return Number of non-losing columns stored in <code>L</code>
+	 */
+	public int getNonLosingColumns(int[] L) {
+		return nonLosingColumns(L);
+	}
+
+	/**
+	 * Returns the number of available columns where the current player can
+	 * move without letting the adversary win with the next move.
+	 *
+	 * @return number of non-losing columns
+	 */
+	public int numOfNonLosingColumns() {
+		return nonLosingColumns(null);
+	}
+
 	/**
    * Returns a copy of the main board
    *
@@ -279,56 +601,138 @@ public class CXBoard {
 
 		for(int i = 0; i < M; i++)
 			for(int j = 0; j < N; j++)
-				C[i][j] = B[i][j];		
+				C[i][j] = cellState(i, j);		
 
 		return C;
 	}
 
 	/**
 	 * Returns a copy of the CXBoard object
+	 * <p>
+	 * The board state is cloned directly, so the cost does not depend on
+	 * the number of moves played.
+	 * </p>
 	 *
 	 * @return A CXBoard
 	 */
 	public CXBoard copy() {
-		CXBoard C = new CXBoard(M,N,X);
-		for(CXCell c : this.getMarkedCells())
-			C.markColumn(c.j);
-		return C;
+		return new CXBoard(this);
   }
 
 
-	// Check winning state from cell i, j
-	private boolean isWinningMove(int i, int j) {
-		CXCellState s = B[i][j];
-		int n;
+	// Check whether the bitmask b contains X aligned symbols: in every
+	// direction d, r is reduced to the starting bits of runs of n symbols,
+	// doubling n until two overlapping runs cover X symbols
+	private boolean isAligned(long b) {
+		for (int d : DIR) {
+			long r = b;
+			int  n = 1;
+			while (2 * n <= X) {
+				r &= r >>> (n * d);
+				n *= 2;
+			}
+			if ((r & (r >>> ((X - n) * d))) != 0)
+				return true;
+		}
+		return false;
+	}
 
-		// Useless pedantic check
-		if (s == CXCellState.FREE)
-			return false;
+	// Winning columns of player, stored in L if not null
+	private int winningColumns(int player, int[] L) {
+		if (gameState != CXGameState.OPEN)
+			return 0;
+		if (bitboard)
+			return columns(winningCells(BB[player]) & playableCells(), L);
+		int n = 0;
+		for (int j = nextAvailableColumn(0); j != -1; j = nextAvailableColumn(j+1))
+			if (isAligned(MB[player], bit(RP[j], j))) {
+				if (L != null) L[n] = j;
+				n++;
+			}
+		return n;
+	}
 
-		// Horizontal check
-		n = 1;
-		for (int k = 1; j-k >= 0 && B[i][j-k] == s; k++) n++; // backward check
-		for (int k = 1; j+k <  N && B[i][j+k] == s; k++) n++; // forward check
-		if (n >= X) return true;
+	// Non-losing columns of the current player, stored in L if not null
+	private int nonLosingColumns(int[] L) {
+		if (gameState != CXGameState.OPEN)
+			return 0;
+		int adversary = 1 - currentPlayer;
+		if (bitboard) {
+			long possible = playableCells();
+			long threats  = winningCells(BB[adversary]);
+			long forced   = possible & threats;
+			if (forced != 0) {
+				if ((forced & (forced - 1)) != 0)
+					return 0; // two threats: one of them can't be blocked
+				possible = forced;
+			}
+			return columns(possible & ~(threats >>> 1), L);
+		}
+		int forced = -1;
+		for (int j = nextAvailableColumn(0); j != -1; j = nextAvailableColumn(j+1))
+			if (isAligned(MB[adversary], bit(RP[j], j))) {
+				if (forced != -1)
+					return 0;
+				forced = j;
+			}
+		int n = 0;
+		for (int j = nextAvailableColumn(0); j != -1; j = nextAvailableColumn(j+1))
+			if ((forced == -1 || j == forced) && (RP[j] == 0 || !isAligned(MB[adversary], bit(RP[j]-1, j)))) {
+				if (L != null) L[n] = j;
+				n++;
+			}
+		return n;
+	}
 
-		// Vertical check
-		n = 1;
-		for (int k = 1; i+k <  M && B[i+k][j] == s; k++) n++;
-		if (n >= X) return true;
+	// Stores in L (if not null) the columns of the bits of b, at most one per column
+	private int columns(long b, int[] L) {
+		if (L == null)
+			return Long.bitCount(b);
+		int n = 0;
+		for (; b != 0; b &= b - 1)
+			L[n++] = Long.numberOfTrailingZeros(b) / H;
+		return n;
+	}
 
-		// Diagonal check
-		n = 1;
-		for (int k = 1; i-k >= 0 && j-k >= 0 && B[i-k][j-k] == s; k++) n++; // backward check
-		for (int k = 1; i+k <  M && j+k <  N && B[i+k][j+k] == s; k++) n++; // forward check
-		if (n >= X) return true;
+	// First free cell of each available column
+	private long playableCells() {
+		return ((BB[0] | BB[1]) + BOTTOM) & FULL;
+	}
 
-		// Anti-diagonal check
-		n = 1;
-		for (int k = 1; i-k >= 0 && j+k <  N && B[i-k][j+k] == s; k++) n++; // backward check
-		for (int k = 1; i+k <  M && j-k >= 0 && B[i+k][j-k] == s; k++) n++; // forward check
-		if (n >= X) return true;
+	// Free cells that would align X symbols of the bitmask b: in every
+	// direction d, RUN[t] marks the cells followed by t symbols of b, and a
+	// cell wins if it is preceded by t symbols and followed by X-1-t
+	private long winningCells(long b) {
+		long w = 0;
+		for (int d : DIR) {
+			RUN[0] = -1L;
+			for (int t = 1; t < X; t++)
+				RUN[t] = RUN[t-1] & (b >>> (t * d));
+			long before = -1L;
+			for (int t = 0; t < X; t++) {
+				if (t > 0)
+					before &= b << (t * d);
+				w |= before & RUN[X-1-t];
+			}
+		}
+		return w & ~(BB[0] | BB[1]) & FULL;
+	}
 
+	// Check whether the multi-word bitmask b contains X aligned symbols
+	// through bit k, counting k as a symbol of b: in every direction d the
+	// bits k+d, k+2d, ... and k-d, k-2d, ... are read until a missing symbol
+	// (sentinels and the ends of the board stop the lines). A move only
+	// changes the lines through its cell, and reading at most 2(X-1) bits per
+	// direction is cheaper than shifting all the words of a large board
+	private boolean isAligned(long[] b, int k) {
+		int size = N * H;
+		for (int d : DIR) {
+			int n = 1;
+			for (int c = k + d; n < X && c < size && (b[c >>> 6] & (1L << c)) != 0; c += d) n++;
+			for (int c = k - d; n < X && c >= 0   && (b[c >>> 6] & (1L << c)) != 0; c -= d) n++;
+			if (n >= X)
+				return true;
+		}
 		return false;
 	}
 }
@@ -27,6 +27,7 @@ import java.util.Random;
  */
 public class L0 implements CXPlayer {
 	private Random rand;
+	private int[]  L;
 
 	/* Default empty constructor */
 	public L0() {
@@ -35,12 +36,13 @@ public class L0 implements CXPlayer {
 	public void initPlayer(int M, int N, int K,  boolean first, int timeout_in_secs) {
 		// New random seed for each game
 		rand = new Random(System.currentTimeMillis());
+		L    = new int[N];
 	}
 
 	/* Selects a random column */
 	public int selectColumn(CXBoard B) {
-		Integer[] L = B.getAvailableColumns();
-		return L[rand.nextInt(L.length)];
+		int n = B.getAvailableColumns(L);
+		return L[rand.nextInt(n)];
 	}
 
 	public String playerName() {
@@ -20,9 +20,7 @@ package connectx.L1;
 
 import connectx.CXPlayer;
 import connectx.CXBoard;
-import connectx.CXGameState;
 import connectx.CXCell;
-import java.util.TreeSet;
 import java.util.Random;
 import java.util.Arrays;
 import java.util.concurrent.TimeoutException;
@@ -36,10 +34,10 @@ import java.util.concurrent.TimeoutException;
  */
 public class L1 implements CXPlayer {
 	private Random rand;
-	private CXGameState myWin;
-	private CXGameState yourWin;
 	private int  TIMEOUT;
 	private long START;
+	private int[] L;
+	private int[] T; // Winning or safe columns found for the current move
 
 	/* Default empty constructor */
 	public L1() {
@@ -48,9 +46,9 @@ public class L1 implements CXPlayer {
 	public void initPlayer(int M, int N, int K, boolean first, int timeout_in_secs) {
 		// New random seed for each game
 		rand    = new Random(System.currentTimeMillis());
-		myWin   = first ? CXGameState.WINP1 : CXGameState.WINP2;
-		yourWin = first ? CXGameState.WINP2 : CXGameState.WINP1;
 		TIMEOUT = timeout_in_secs;
+		L       = new int[N];
+		T       = new int[N];
 	}
 
 	/**
@@ -64,15 +62,15 @@ public class L1 implements CXPlayer {
 	public int selectColumn(CXBoard B) {
 		START = System.currentTimeMillis(); // Save starting time
 
-		Integer[] L = B.getAvailableColumns();
-		int save    = L[rand.nextInt(L.length)]; // Save a random column 
+		int n    = B.getAvailableColumns(L);
+		int save = L[rand.nextInt(n)]; // Save a random column 
 
 		try {
-			int col = singleMoveWin(B,L);
+			int col = singleMoveWin(B);
 			if(col != -1) 
 				return col;
 			else
-				return singleMoveBlock(B,L);
+				return singleMoveBlock(B,L,n);
 		} catch (TimeoutException e) {
 			System.err.println("Timeout!!! Random column selected");
 			return save;
@@ -89,14 +87,10 @@ public class L1 implements CXPlayer {
 	 *
 	 * Returns the winning column if there is one, otherwise -1
 	 */	
-	private int singleMoveWin(CXBoard B, Integer[] L) throws TimeoutException {
-    for(int i : L) {
-			checktime(); // Check timeout at every iteration
-      CXGameState state = B.markColumn(i);
-      if (state == myWin)
-        return i; // Winning column found: return immediately
-      B.unmarkColumn();
-    }
+	private int singleMoveWin(CXBoard B) throws TimeoutException {
+		checktime();
+		if (B.getWinningColumns(B.currentPlayer(), T) > 0)
+			return T[0]; // Winning column found: return immediately
 		return -1;
 	}
 
@@ -105,37 +99,14 @@ public class L1 implements CXPlayer {
    *
    * Returns a blocking column if there is one, otherwise a random one
    */
-	private int singleMoveBlock(CXBoard B, Integer[] L) throws TimeoutException {
-		TreeSet<Integer> T = new TreeSet<Integer>(); // We collect here safe column indexes
+	private int singleMoveBlock(CXBoard B, int[] L, int n) throws TimeoutException {
+		checktime();
+		int t = B.getNonLosingColumns(T); // We collect here safe column indexes
 
-		for(int i : L) {
-			checktime();
-			T.add(i); // We consider column i as a possible move
-			B.markColumn(i);
-
-			int j;
-			boolean stop;
-
-			for(j = 0, stop=false; j < L.length && !stop; j++) {
-				//try {Thread.sleep((int)(0.2*1000*TIMEOUT));} catch (Exception e) {} // Uncomment to test timeout
-				checktime();
-				if(!B.fullColumn(L[j])) {
-					CXGameState state = B.markColumn(L[j]);
-					if (state == yourWin) {
-						T.remove(i); // We ignore the i-th column as a possible move
-						stop = true; // We don't need to check more
-					}
-					B.unmarkColumn(); // 
-				}
-			}
-			B.unmarkColumn();
-		}
-
-		if (T.size() > 0) {
-			Integer[] X = T.toArray(new Integer[T.size()]);
- 			return X[rand.nextInt(X.length)];
+		if (t > 0) {
+ 			return T[rand.nextInt(t)];
 		} else {
-			return L[rand.nextInt(L.length)];
+			return L[rand.nextInt(n)];
 		}
 	}
 
@@ -0,0 +1,305 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXCellState;
+import java.util.Arrays;
+
+// Exact solver for the last part of a game, when the remaining tree is small enough to be searched to the end.
+//
+// The position is kept in two bitboards (the cells of the player to move and all the occupied cells) with the same
+// column-major layout as CXBoard: M + 1 bits per column, the last one always empty, so that the boards fit in a long
+// only when N * (M + 1) <= 64. The search is a negamax alpha-beta over the game results, with no heuristic:
+//   - a win is worth the number of free cells left before the winning move, so that faster wins are worth more
+//   - a loss is worth minus the number of free cells left before the opponent's winning move
+//   - a draw is worth 0
+// The exact value of the root is found by a sequence of null-window searches (bisection of the range of the scores),
+// and moves that let the opponent win at once are never searched. The solver has its own table, indexed by an exact
+// key of the position: the results of the null-window searches are bounds, and each entry keeps a lower and an upper one.
+public class EndgameSolver {
+
+	private static final int TABLE_BITS = 20;		// 2^20 entries
+	private static final long DEFAULT_RATE = 2000000;		// nodes per second assumed before the first solve
+	private static final double BRANCHING = 1.6;		// estimated effective branching factor of the solver
+	private static final double STOP_MARGIN = 4;		// a stopped solve is assumed to need this many times the time it had
+	private static final int POLL_INTERVAL = 4096;		// nodes between two readings of the clock
+
+	private final int M, N, X;
+	private final int H;		// bits per column
+	private final int size;		// number of cells
+	private final long bottom;		// lowest bit of each column
+	private final long boardMask;		// all playable bits
+	private final int[] directions;		// shifts of the directions where X symbols fit
+	private final int[] order;		// columns from the center outwards
+
+	private final long[] keys = new long[1 << TABLE_BITS];		// exact key of each entry, 0 if empty
+	private final int[] lower = new int[1 << TABLE_BITS];		// bounds of the value of each entry
+	private final int[] upper = new int[1 << TABLE_BITS];
+	private final long[][] moveLists;		// sorted moves of each level of the search, so that no array is allocated during the search
+	private final int[][] scoreLists;
+	private final long[] before, after;		// work arrays of winningCells
+
+	private long nodes;		// nodes searched by the current solve
+	private long deadline;		// System.nanoTime after which the current solve is abandoned
+	private boolean aborted;
+	private long totalNodes, totalNanos;		// measured speed of the solver
+	private double correction = 1;		// factor of the estimated times, raised when a solve is stopped
+
+	// Returns true if the solver can handle boards of the given size
+	public static boolean fits(int M, int N) {
+		return N * (M + 1) <= 64;
+	}
+
+	public EndgameSolver(int M, int N, int X) {
+		this.M = M;
+		this.N = N;
+		this.X = X;
+		this.H = M + 1;
+		this.size = M * N;
+		long b = 0;
+		for (int j = 0; j < N; j++)
+			b |= 1L << j * H;
+		this.bottom = b;
+		this.boardMask = b * ((1L << M) - 1);
+		int count = 0;
+		int[] dirs = new int[4];
+		if (X <= M)
+			dirs[count++] = 1;		// vertical
+		if (X <= N)
+			dirs[count++] = H;		// horizontal
+		if (X <= Math.min(M, N)) {
+			dirs[count++] = H - 1;		// diagonal
+			dirs[count++] = H + 1;		// anti-diagonal
+		}
+		this.directions = Arrays.copyOf(dirs, count);
+		this.moveLists = new long[size + 1][N];
+		this.scoreLists = new int[size + 1][N];
+		this.before = new long[X];
+		this.after = new long[X];
+		this.order = new int[N];
+		for (int k = 0; k < N; k++)
+			order[k] = N / 2 + (1 - 2 * (k % 2)) * (k + 1) / 2;		// N/2, N/2-1, N/2+1, ...
+	}
+
+	// Returns true if this solver is for the given configuration
+	public boolean fits(int M, int N, int X) {
+		return this.M == M && this.N == N && this.X == X;
+	}
+
+	// Estimated time in nanoseconds to solve a position with the given number of free cells
+	public long estimatedTime(int freeCells) {
+		long rate = totalNanos > 100000000 ? totalNodes * 1000000000L / totalNanos : DEFAULT_RATE;
+		double estimatedNodes = Math.pow(BRANCHING, freeCells) * correction;
+		return (long) Math.min(estimatedNodes / Math.max(rate, 1) * 1e9, Long.MAX_VALUE / 2);
+	}
+
+	// Find the best move of the given open position, or -1 if it can't be solved before the deadline (System.nanoTime)
+	public int solve(CXBoard B, long deadline) {
+		long start = System.nanoTime();
+		this.deadline = deadline;
+		this.aborted = false;
+		this.nodes = 0;
+
+		// build the bitboards of the position from the cells of the board
+		long position = 0, mask = 0;
+		CXCellState me = B.currentPlayer() == 0 ? CXCellState.P1 : CXCellState.P2;
+		for (int i = 0; i < M; i++)
+			for (int j = 0; j < N; j++) {
+				CXCellState c = B.cellState(i, j);
+				if (c != CXCellState.FREE) {
+					long bit = 1L << j * H + M - 1 - i;
+					mask |= bit;
+					if (c == me)
+						position |= bit;
+				}
+			}
+		int moves = B.numOfMarkedCells();
+
+		int best = -1;
+		long winning = winningCells(position, mask) & playable(mask);
+		if (winning != 0) {
+			best = column(winning);
+		} else {
+			// exact value of the position, then the first move that reaches it
+			int value = value(position, mask, moves);
+			long next = nonLosingMoves(position, mask);
+			if (!aborted && next == 0) {
+				// every move loses: play where the opponent would win, at least the loss is delayed if there is another threat
+				long threats = winningCells(position ^ mask, mask) & playable(mask);
+				best = column(threats != 0 ? threats : playable(mask));
+			}
+			for (int k = 0; k < N && !aborted && best == -1; k++) {
+				long move = next & columnMask(order[k]);
+				if (move == 0)
+					continue;
+				// the move reaches the value if the opponent can't get more than -value after it
+				long child = position ^ mask, childMask = mask | move;
+				if (-negamax(child, childMask, moves + 1, -value, -value + 1) >= value)
+					best = order[k];
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		totalNodes += nodes;
+		totalNanos += elapsed;
+		// the tree of a stopped solve was larger than estimated, and it needed more than the time it had: scale the
+		// estimates so that this position would need STOP_MARGIN times that time, and the next solves start later
+		if (aborted)
+			correction *= Math.max(1, STOP_MARGIN * elapsed / (double) Math.max(estimatedTime(size - moves), 1));
+		return aborted ? -1 : best;
+	}
+
+	// Exact value of a position where the player to move can't win at once
+	private int value(long position, long mask, int moves) {
+		int min = -(size - moves - 1);
+		int max = size - moves - 2;
+		while (min < max && !aborted) {
+			// null-window search around the middle of the range, biased towards 0 to find draws and short games quickly
+			int med = min + (max - min) / 2;
+			if (med <= 0 && min / 2 < med)
+				med = min / 2;
+			else if (med >= 0 && max / 2 > med)
+				med = max / 2;
+			int r = negamax(position, mask, moves, med, med + 1);
+			if (r <= med)
+				max = r;
+			else
+				min = r;
+		}
+		return min;
+	}
+
+	// Negamax alpha-beta of a position with the given number of moves, where the player to move can't win at once
+	private int negamax(long position, long mask, int moves, int alpha, int beta) {
+		if (++nodes % POLL_INTERVAL == 0 && System.nanoTime() - deadline >= 0)
+			aborted = true;
+		if (aborted)
+			return 0;
+
+		long next = nonLosingMoves(position, mask);
+		if (next == 0)
+			return -(size - moves - 1);		// the opponent wins with the next move
+		if (moves >= size - 2)
+			return 0;		// the board fills up before anybody can win
+
+		// the opponent can't win with its next move: its first chance is two moves later
+		int min = -(size - moves - 3);
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta)
+				return alpha;
+		}
+		// we can't win with this move: our first chance is with the next one
+		int max = size - moves - 2;
+		long key = position + mask + bottom;		// unique for each position (and never 0): the lowest free cell of each column marks its height
+		int index = (int) (key ^ key >>> 29) & (1 << TABLE_BITS) - 1;
+		if (keys[index] == key) {
+			max = Math.min(max, upper[index]);
+			min = Math.max(min, lower[index]);
+			if (alpha < min) {
+				alpha = min;
+				if (alpha >= beta)
+					return alpha;
+			}
+		}
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta)
+				return beta;
+		}
+
+		// moves that create more threats are searched first, the center breaks the ties
+		long[] moveList = moveLists[moves];
+		int[] scores = scoreLists[moves];
+		int count = 0;
+		for (int k = 0; k < N; k++) {
+			long move = next & columnMask(order[k]);
+			if (move == 0)
+				continue;
+			int score = Long.bitCount(winningCells(position | move, mask | move) & ~(mask | move) & boardMask);
+			int h = count++;
+			while (h > 0 && scores[h - 1] < score) {
+				moveList[h] = moveList[h - 1];
+				scores[h] = scores[h - 1];
+				h--;
+			}
+			moveList[h] = move;
+			scores[h] = score;
+		}
+
+		int alphaOrig = alpha;
+		int best = -size;
+		for (int k = 0; k < count; k++) {
+			long move = moveList[k];
+			int score = -negamax(position ^ mask, mask | move, moves + 1, -beta, -alpha);
+			if (aborted)
+				return 0;
+			if (score > best)
+				best = score;
+			if (score >= beta)
+				break;
+			if (score > alpha)
+				alpha = score;
+		}
+
+		// a result below the window is an upper bound, one above it a lower bound
+		if (keys[index] != key) {
+			keys[index] = key;
+			lower[index] = -size;
+			upper[index] = size;
+		}
+		if (best <= alphaOrig)
+			upper[index] = Math.min(upper[index], best);
+		else if (best >= beta)
+			lower[index] = Math.max(lower[index], best);
+		else {
+			lower[index] = best;
+			upper[index] = best;
+		}
+		return best;
+	}
+
+	// Playable moves of the player to move that don't let the opponent win at once, one bit per move
+	private long nonLosingMoves(long position, long mask) {
+		long possible = playable(mask);
+		long threats = winningCells(position ^ mask, mask);
+		long forced = possible & threats;
+		if (forced != 0) {
+			if ((forced & forced - 1) != 0)
+				return 0;		// two threats to block: the opponent wins anyway
+			possible = forced;
+		}
+		return possible & ~(threats >>> 1);		// don't play below a cell where the opponent wins
+	}
+
+	// Lowest free cell of each column that isn't full
+	private long playable(long mask) {
+		return (mask + bottom) & boardMask;
+	}
+
+	// Free cells that would complete X symbols in a row for the player owning the given cells
+	private long winningCells(long position, long mask) {
+		long cells = 0;
+		for (int d : directions) {
+			// before[t]: cells with a symbol at distance 1..t in the negative direction, after[t] in the positive one
+			before[0] = -1L;
+			after[0] = -1L;
+			for (int t = 1; t < X; t++) {
+				before[t] = before[t - 1] & position << d * t;
+				after[t] = after[t - 1] & position >>> d * t;
+			}
+			for (int t = 0; t < X; t++)
+				cells |= before[t] & after[X - 1 - t];
+		}
+		return cells & ~mask & boardMask;
+	}
+
+	// All the cells of a column
+	private long columnMask(int col) {
+		return ((1L << M) - 1) << col * H;
+	}
+
+	// Column of the lowest set bit of a move mask
+	private int column(long moves) {
+		return Long.numberOfTrailingZeros(moves) / H;
+	}
+
+}
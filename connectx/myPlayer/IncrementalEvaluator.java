@@ -0,0 +1,163 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXCellState;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Heuristic evaluation of a position, kept up to date move by move instead of rescanning the board at every leaf.
+// A window is a line of X cells (horizontal, vertical or diagonal) where a player could still connect X symbols.
+// For every window the number of symbols of each player is tracked: a window that contains only symbols of one
+// player is worth 10^(k-1) to that player, where k is the number of its symbols, and a window with symbols of both
+// players is worth nothing. The evaluation is the sum over all the windows, from the point of view of the first player.
+// Marking or unmarking a cell only updates the windows through that cell.
+//
+// The content of a window is encoded as a pattern index, c1 * (X + 1) + c2 where c1 and c2 are the numbers of symbols
+// of the two players, and the values of all the patterns are computed once when the evaluator is created. A move
+// changes a pattern by a constant step, so the table also keeps the change of value caused by adding a symbol to each
+// pattern: updating a window is a table lookup, without branches.
+//
+// The evaluator follows the board of a search thread: mark and unmark are called right after the corresponding moves
+// on the board, and sync rebuilds the counts from scratch when the evaluator refers to a different position (it only
+// compares the hashes when it is already in sync, so it can be called at every node).
+public class IncrementalEvaluator {
+
+	static final long MAX_WEIGHT = 1000000000000L;		// largest value of a window, well above the heuristic scores of the search
+
+	private final int M, N, X;
+	private final int[][] cellWindows;		// windows through each cell (index i * N + j)
+	private final int[] pattern;		// pattern index of each window
+	private final int[] step;		// change of the pattern index when each player adds a symbol
+	private final long[] value;		// value of each pattern for the first player
+	private final long[][] gain;		// change of value of each pattern when each player adds a symbol to it
+	private final int[] height;		// number of symbols in each column
+	private final int[] owner;		// player owning each cell, -1 if free
+	private int marked;		// number of symbols on the board
+	private long hash;		// hash of the position the counts refer to
+	private long score;		// value of the position for the first player
+
+	public IncrementalEvaluator(int M, int N, int X) {
+		this.M = M;
+		this.N = N;
+		this.X = X;
+		// enumerate the windows in the four directions
+		List<List<Integer>> windows = new ArrayList<List<Integer>>();
+		for (int i = 0; i < M * N; i++)
+			windows.add(new ArrayList<Integer>());
+		int[][] directions = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+		int w = 0;
+		for (int[] d : directions)
+			for (int i = 0; i < M; i++)
+				for (int j = 0; j < N; j++) {
+					int lastI = i + d[0] * (X - 1), lastJ = j + d[1] * (X - 1);
+					if (lastI < 0 || lastI >= M || lastJ < 0 || lastJ >= N)
+						continue;
+					for (int k = 0; k < X; k++)
+						windows.get((i + d[0] * k) * N + j + d[1] * k).add(w);
+					w++;
+				}
+		this.cellWindows = new int[M * N][];
+		for (int c = 0; c < M * N; c++) {
+			List<Integer> l = windows.get(c);
+			cellWindows[c] = new int[l.size()];
+			for (int k = 0; k < l.size(); k++)
+				cellWindows[c][k] = l.get(k);
+		}
+		this.pattern = new int[w];
+		this.step = new int[] { X + 1, 1 };
+		// a window with k symbols of only one player is worth 10^(k-1) to that player, one with symbols of both nothing.
+		// The powers stop growing at MAX_WEIGHT, so that the sum over all the windows can't overflow
+		long[] power = new long[X + 1];
+		power[1] = 1;
+		for (int k = 2; k <= X; k++)
+			power[k] = Math.min(power[k - 1] * 10, MAX_WEIGHT);
+		int patterns = (X + 1) * (X + 1);
+		this.value = new long[patterns];
+		for (int c1 = 0; c1 <= X; c1++)
+			for (int c2 = 0; c2 <= X; c2++)
+				if (c1 == 0 && c2 > 0)
+					value[c1 * (X + 1) + c2] = -power[c2];
+				else if (c2 == 0 && c1 > 0)
+					value[c1 * (X + 1) + c2] = power[c1];
+		this.gain = new long[2][patterns];
+		for (int player = 0; player < 2; player++)
+			for (int p = 0; p + step[player] < patterns; p++)
+				gain[player][p] = value[p + step[player]] - value[p];
+		this.height = new int[N];
+		this.owner = new int[M * N];
+		Arrays.fill(owner, -1);
+		this.hash = 0;		// the empty board, whose hash is 0
+	}
+
+	// Returns true if this evaluator is for the given configuration
+	public boolean fits(int M, int N, int X) {
+		return this.M == M && this.N == N && this.X == X;
+	}
+
+	// Value of the position for the first player, after bringing the evaluator to the position of the given board
+	public long score(CXBoard B) {
+		sync(B);
+		return score;
+	}
+
+	// Update the evaluation after B.play(col) or B.markColumn(col): the evaluator must be in sync with the board before the move
+	public void mark(CXBoard B, int col) {
+		int cell = (M - 1 - height[col]) * N + col;
+		int player = marked % 2;
+		long[] g = gain[player];
+		int st = step[player];
+		for (int w : cellWindows[cell]) {
+			score += g[pattern[w]];
+			pattern[w] += st;
+		}
+		owner[cell] = player;
+		height[col]++;
+		marked++;
+		hash = B.hash();
+	}
+
+	// Update the evaluation after B.undo() or B.unmarkColumn() undid the move in column col
+	public void unmark(CXBoard B, int col) {
+		int cell = (M - height[col]) * N + col;
+		int player = owner[cell];
+		long[] g = gain[player];
+		int st = step[player];
+		for (int w : cellWindows[cell]) {
+			pattern[w] -= st;
+			score -= g[pattern[w]];
+		}
+		owner[cell] = -1;
+		height[col]--;
+		marked--;
+		hash = B.hash();
+	}
+
+	// Bring the evaluator to the position of the given board, rebuilding the counts if it refers to another position
+	public void sync(CXBoard B) {
+		if (hash == B.hash() && marked == B.numOfMarkedCells())
+			return;
+		Arrays.fill(pattern, 0);
+		Arrays.fill(owner, -1);
+		Arrays.fill(height, 0);
+		score = 0;
+		marked = 0;
+		for (int i = M - 1; i >= 0; i--)
+			for (int j = 0; j < N; j++) {
+				CXCellState s = B.cellState(i, j);
+				if (s == CXCellState.FREE)
+					continue;
+				int cell = i * N + j;
+				int player = s == CXCellState.P1 ? 0 : 1;
+				for (int w : cellWindows[cell]) {
+					score += gain[player][pattern[w]];
+					pattern[w] += step[player];
+				}
+				owner[cell] = player;
+				height[j]++;
+				marked++;
+			}
+		hash = B.hash();
+	}
+
+}
@@ -0,0 +1,114 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXCellState;
+import connectx.CXGameState;
+import java.util.Random;
+
+// Differential check of IncrementalEvaluator.
+// On several configurations, random games mark and unmark cells (with both markColumn/unmarkColumn and play/undo) and
+// sometimes move the board without telling the evaluator, so that it has to rebuild its counts with sync. After every
+// step the score kept incrementally by the evaluator is compared with a full rescan of the board that scores every window
+// with the same values: a window with c1 symbols of the first player and c2 of the second one is worth nothing if both
+// are present, power[c1] if only the first player is, -power[c2] if only the second one is, where power[1] = 1 and
+// power[k] = min(power[k - 1] * 10, IncrementalEvaluator.MAX_WEIGHT). The check exits with a non-zero status at the
+// first difference.
+//
+//   java -cp ".." connectx.myPlayer.IncrementalEvaluatorCheck [games] [seed]
+public class IncrementalEvaluatorCheck {
+
+	private static final int[][] CONFIGURATIONS = {
+		{ 6, 7, 4 }, { 4, 4, 4 }, { 5, 9, 5 }, { 10, 6, 4 }, { 8, 8, 6 }, { 3, 12, 3 }, { 12, 12, 9 }, { 20, 40, 6 }
+	};
+	private static final int[][] DIRECTIONS = { { 0, 1 }, { 1, 0 }, { 1, 1 }, { 1, -1 } };
+	private static final int STEPS = 300;		// steps of each game
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		Random random = new Random(seed);
+		long checks = 0;
+		for (int[] cfg : CONFIGURATIONS) {
+			int M = cfg[0], N = cfg[1], X = cfg[2];
+			IncrementalEvaluator evaluator = new IncrementalEvaluator(M, N, X);
+			System.out.println(M + "x" + N + " X=" + X);
+			for (int g = 0; g < games; g++) {
+				CXBoard B = new CXBoard(M, N, X);
+				evaluator.sync(B);
+				for (int s = 0; s < STEPS; s++) {
+					int op = random.nextInt(10);
+					if (op == 0) {
+						// move the board behind the back of the evaluator, then bring it back in sync
+						for (int k = random.nextInt(3); k >= 0; k--)
+							if (B.gameState() == CXGameState.OPEN && random.nextBoolean())
+								B.markColumn(randomColumn(B, random));
+							else if (B.numOfMarkedCells() > 0)
+								B.unmarkColumn();
+						evaluator.sync(B);
+					} else if (B.gameState() == CXGameState.OPEN && (op < 7 || B.numOfMarkedCells() == 0)) {
+						int col = randomColumn(B, random);
+						if (random.nextBoolean())
+							B.markColumn(col);
+						else
+							B.play(col);
+						evaluator.mark(B, col);
+					} else if (B.numOfMarkedCells() > 0) {
+						int col = B.getLastMove().j;
+						if (random.nextBoolean())
+							B.unmarkColumn();
+						else
+							B.undo();
+						evaluator.unmark(B, col);
+					}
+					checks++;
+					long expected = referenceScore(B, M, N, X);
+					long actual = evaluator.score(B);
+					if (actual != expected) {
+						System.err.println("Mismatch on " + M + "x" + N + " X=" + X + ", game " + g + ", step " + s
+								+ ": evaluator " + actual + ", reference " + expected);
+						System.exit(1);
+					}
+				}
+			}
+		}
+		System.out.println(checks + " steps checked, no mismatch");
+	}
+
+	private static int randomColumn(CXBoard B, Random random) {
+		Integer[] L = B.getAvailableColumns();
+		return L[random.nextInt(L.length)];
+	}
+
+	// Sum over all the windows of the board, from the point of view of the first player, rescanned from the cells
+	private static long referenceScore(CXBoard B, int M, int N, int X) {
+		long[] power = new long[X + 1];
+		power[1] = 1;
+		for (int k = 2; k <= X; k++)
+			power[k] = Math.min(power[k - 1] * 10, IncrementalEvaluator.MAX_WEIGHT);
+		CXCellState[][] C = B.getBoard();
+		long score = 0;
+		for (int[] d : DIRECTIONS)
+			for (int i = 0; i < M; i++)
+				for (int j = 0; j < N; j++) {
+					int lastI = i + d[0] * (X - 1), lastJ = j + d[1] * (X - 1);
+					if (lastI < 0 || lastI >= M || lastJ < 0 || lastJ >= N)
+						continue;
+					int c1 = 0, c2 = 0;
+					for (int k = 0; k < X; k++) {
+						CXCellState s = C[i + d[0] * k][j + d[1] * k];
+						if (s == CXCellState.P1)
+							c1++;
+						else if (s == CXCellState.P2)
+							c2++;
+					}
+					if (c1 > 0 && c2 > 0)
+						continue;
+					if (c1 > 0)
+						score += power[c1];
+					else if (c2 > 0)
+						score -= power[c2];
+				}
+		return score;
+	}
+
+}
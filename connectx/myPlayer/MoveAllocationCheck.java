@@ -0,0 +1,77 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+// Allocation check of the CXBoard moves.
+// On a board that fits in a single bitboard and on a multi-word one, random games are played and taken back with both
+// play/undo and markColumn/unmarkColumn. The bytes allocated by the thread meanwhile are read from the ThreadMXBean of
+// the JVM (HotSpot) after a warm-up, so that the measured games run compiled code. The JIT compiler can still allocate a
+// few bytes once, when it replaces the code of a method, so the games are measured in several rounds: the check fails
+// with a non-zero exit status if even the best round allocated, as every round would if the moves allocated.
+//
+//   java -cp ".." connectx.myPlayer.MoveAllocationCheck [games] [seed]
+public class MoveAllocationCheck {
+
+	private static final int[][] CONFIGURATIONS = { { 6, 7, 4 }, { 20, 40, 6 } };
+	private static final int WARMUP = 20000;		// games played before measuring
+	private static final int ROUNDS = 5;		// measured rounds of games, only the best one counts
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20000;		// games of each round
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			System.err.println("This JVM can't measure the allocations of a thread");
+			System.exit(1);
+		}
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		SplittableRandom random = new SplittableRandom(seed);
+		boolean allocated = false;
+		for (int[] cfg : CONFIGURATIONS) {
+			CXBoard B = new CXBoard(cfg[0], cfg[1], cfg[2]);
+			for (int g = 0; g < WARMUP; g++)
+				playAndTakeBack(B, random);
+			bean.getCurrentThreadAllocatedBytes();		// the first reading may allocate itself
+			long moves = 0, bytes = Long.MAX_VALUE;
+			for (int r = 0; r < ROUNDS; r++) {
+				long before = bean.getCurrentThreadAllocatedBytes();
+				for (int g = 0; g < games; g++)
+					moves += playAndTakeBack(B, random);
+				bytes = Math.min(bytes, bean.getCurrentThreadAllocatedBytes() - before);
+			}
+			System.out.println(cfg[0] + "x" + cfg[1] + " X=" + cfg[2] + ": " + moves + " moves played and undone, " + bytes
+					+ " bytes allocated in the best round");
+			allocated |= bytes != 0;
+		}
+		if (allocated) {
+			System.err.println("Some moves allocated memory");
+			System.exit(1);
+		}
+	}
+
+	// Play random moves on the empty board B until the game ends, then take them all back: half of the games use the
+	// unchecked play/undo, the other half markColumn/unmarkColumn. Returns the number of moves played
+	private static int playAndTakeBack(CXBoard B, SplittableRandom random) {
+		boolean checked = random.nextBoolean();
+		int moves = 0;
+		while (B.gameState() == CXGameState.OPEN) {
+			int col = B.nextAvailableColumn(0);
+			for (int k = random.nextInt(B.numOfAvailableColumns()); k > 0; k--)
+				col = B.nextAvailableColumn(col + 1);
+			if (checked)
+				B.markColumn(col);
+			else
+				B.play(col);
+			moves++;
+		}
+		for (int k = 0; k < moves; k++)
+			if (checked)
+				B.unmarkColumn();
+			else
+				B.undo();
+		return moves;
+	}
+
+}
@@ -0,0 +1,135 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+
+// Move ordering of the search: the earlier the best move is searched, the earlier alpha-beta cuts the remaining ones.
+// The available columns of a node are sorted by
+//   1. the best move stored in the transposition table
+//   2. the two killer moves of the ply (moves that recently caused a cutoff in sibling nodes)
+//   3. the history score of the column for the player to move (how many cutoffs it caused, weighted by depth)
+//   4. the distance from the center, as static fallback when no other information is available
+// Only the moves worth searching are ordered: the winning ones if there are any, otherwise the ones that don't let the
+// opponent win at once (all the available ones if every move loses).
+// Every search thread owns its MoveOrdering, which also counts how many cutoffs are produced by the first move.
+public class MoveOrdering {
+
+	private static final long TT_MOVE = Long.MAX_VALUE;		// sort key of the transposition table move
+	private static final long KILLER = Long.MAX_VALUE - 2;		// sort key of the first killer move (the second one gets KILLER - 1)
+	private static final int HISTORY_MAX = 1 << 24;		// when a history score reaches this value all of them are halved
+
+	private final int M;
+	private final int N;
+	private final int[][] killers;		// two killer moves for each ply
+	private final int[][] history;		// history score of each column, for each player
+	private final int[] center;		// static score of each column: higher in the center
+	private final int[][] moves;		// ordered moves of each ply, so that no array is allocated during the search
+	private final long[] keys;		// sort keys of the moves being ordered (history * N overflows an int on wide boards)
+	private final int[] columns;		// moves of the node being ordered, before sorting
+
+	private long cutoffs;		// nodes where a move caused a cutoff
+	private long firstMoveCutoffs;		// nodes where the cutoff was caused by the first move searched
+
+	public MoveOrdering(int M, int N) {
+		this.M = M;
+		this.N = N;
+		this.killers = new int[M * N + 1][2];
+		this.history = new int[2][N];
+		this.center = new int[N];
+		this.moves = new int[M * N + 1][N];
+		this.keys = new long[N];
+		this.columns = new int[N];
+		for (int col = 0; col < N; col++)
+			center[col] = N - Math.abs(2 * col - (N - 1));
+		newSearch();
+	}
+
+	// Returns true if this object can order the moves of boards of the given size
+	public boolean fits(int M, int N) {
+		return this.M == M && this.N == N;
+	}
+
+	// Prepare for a new search: killer moves refer to other positions and are forgotten, history scores are aged
+	public void newSearch() {
+		for (int[] k : killers) {
+			k[0] = -1;
+			k[1] = -1;
+		}
+		for (int[] h : history)
+			for (int col = 0; col < N; col++)
+				h[col] /= 2;
+	}
+
+	// Sort the moves of the given position, ply plies below the root, and return how many they are:
+	// the ordered columns are in the head of moves(ply)
+	public int sort(CXBoard B, int ply, int ttMove) {
+		int[] list = moves[ply];
+		int[] hist = history[B.currentPlayer()];
+		int available = B.getWinningColumns(B.currentPlayer(), columns);
+		if (available == 0)
+			available = B.getNonLosingColumns(columns);
+		if (available == 0)
+			available = B.getAvailableColumns(columns);
+		int n = 0;
+		for (int c = 0; c < available; c++) {
+			int col = columns[c];
+			long key;
+			if (col == ttMove)
+				key = TT_MOVE;
+			else if (col == killers[ply][0])
+				key = KILLER;
+			else if (col == killers[ply][1])
+				key = KILLER - 1;
+			else
+				key = (long) hist[col] * N + center[col];		// history first, the center only breaks ties
+			// insertion sort by decreasing key: there are at most N columns
+			int k = n++;
+			while (k > 0 && keys[k - 1] < key) {
+				keys[k] = keys[k - 1];
+				list[k] = list[k - 1];
+				k--;
+			}
+			keys[k] = key;
+			list[k] = col;
+		}
+		return n;
+	}
+
+	// Ordered moves of the given ply, filled by sort
+	public int[] moves(int ply) {
+		return moves[ply];
+	}
+
+	// Record that the move col, the index-th searched, caused a cutoff at a node of the given depth and ply
+	public void cutoff(CXBoard B, int ply, int depth, int col, int index) {
+		cutoffs++;
+		if (index == 0)
+			firstMoveCutoffs++;
+		if (killers[ply][0] != col) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = col;
+		}
+		int[] hist = history[B.currentPlayer()];
+		hist[col] += depth * depth;
+		if (hist[col] >= HISTORY_MAX)
+			for (int[] h : history)
+				for (int c = 0; c < N; c++)
+					h[c] /= 2;
+	}
+
+	// Number of nodes where a cutoff happened
+	public long cutoffs() {
+		return cutoffs;
+	}
+
+	// Number of nodes where the cutoff was caused by the first move
+	public long firstMoveCutoffs() {
+		return firstMoveCutoffs;
+	}
+
+	// Reset the statistics
+	public void resetStatistics() {
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+	}
+
+}
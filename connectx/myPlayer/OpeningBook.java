@@ -0,0 +1,103 @@
+package connectx.myPlayer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Opening book: best moves of the first positions of a game, computed offline by OpeningBookGenerator with long searches.
+// There is a file for each board configuration, named book-M-N-X.bin, with a header followed by the records sorted by key
+//
+//   header   int MAGIC, int VERSION, int M, int N, int X, int number of records
+//   record   long position key (CXBoard.canonicalHash), int score for the player to move, int best move
+//
+// The file is memory-mapped, so it is not read when the player is created: a lookup is a binary search that only
+// touches the few pages it needs. The keys are the canonical Zobrist hashes of CXBoard, which are deterministic for a
+// board size, so a position and its mirror image share a record: the best move refers to the canonical board and is
+// converted with CXBoard.canonicalColumn. VERSION must be increased if the way the keys are computed changes, so that
+// old books are ignored.
+public class OpeningBook {
+
+	static final int MAGIC = 0x43584F42;		// "CXOB"
+	static final int VERSION = 2;		// 2: canonical keys
+	static final int HEADER_BYTES = 24;
+	static final int RECORD_BYTES = 16;
+
+	private final MappedByteBuffer buffer;
+	private final int M, N, X;
+	private final int size;		// number of records
+
+	private OpeningBook(MappedByteBuffer buffer, int M, int N, int X, int size) {
+		this.buffer = buffer;
+		this.M = M;
+		this.N = N;
+		this.X = X;
+		this.size = size;
+	}
+
+	// Name of the book file of the given configuration
+	public static String fileName(int M, int N, int X) {
+		return "book-" + M + "-" + N + "-" + X + ".bin";
+	}
+
+	// Map the book of the given configuration from the given directory, returns null if there is no valid book
+	public static OpeningBook open(Path directory, int M, int N, int X) {
+		Path file = directory.resolve(fileName(M, N, X));
+		if (!Files.isReadable(file))
+			return null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_BYTES || length > Integer.MAX_VALUE)
+				return null;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);		// the mapping stays valid after the channel is closed
+			int size = buffer.getInt(20);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != M || buffer.getInt(12) != N
+					|| buffer.getInt(16) != X || size < 0 || HEADER_BYTES + (long) size * RECORD_BYTES != length)
+				return null;
+			return new OpeningBook(buffer, M, N, X, size);
+		} catch (IOException e) {
+			return null;		// an unreadable book is like a missing one: the player searches every move
+		}
+	}
+
+	// Returns true if this book is for the given configuration
+	public boolean fits(int M, int N, int X) {
+		return this.M == M && this.N == N && this.X == X;
+	}
+
+	// Number of positions in the book
+	public int size() {
+		return size;
+	}
+
+	// Index of the record of the given position key, or -1 if the book doesn't contain it
+	private int find(long key) {
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long k = buffer.getLong(HEADER_BYTES + mid * RECORD_BYTES);
+			if (k < key)
+				low = mid + 1;
+			else if (k > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	// Best move of the given position, or -1 if the book doesn't contain it
+	public int move(long key) {
+		int i = find(key);
+		return i == -1 ? -1 : buffer.getInt(HEADER_BYTES + i * RECORD_BYTES + 12);
+	}
+
+	// Score of the given position for the player to move, or 0 if the book doesn't contain it
+	public int score(long key) {
+		int i = find(key);
+		return i == -1 ? 0 : buffer.getInt(HEADER_BYTES + i * RECORD_BYTES + 8);
+	}
+
+}
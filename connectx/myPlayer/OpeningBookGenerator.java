@@ -0,0 +1,98 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Offline generator of the opening books read by OpeningBook.
+// For each player, the positions of the first plies are explored following only the book move of that player and
+// every reply of the opponent: each position where the player has to move is searched by myPlayer for the given time.
+//
+//   java -cp ".." connectx.myPlayer.OpeningBookGenerator M N X plies seconds [directory]
+//
+// Without directory, the book is written in the directory where myPlayer looks for it by default.
+public class OpeningBookGenerator {
+
+	private final int M, N, X;
+	private final myPlayer player = new myPlayer();
+	private final TreeMap<Long, int[]> book = new TreeMap<Long, int[]>();		// position key -> {score, move}, sorted by key
+
+	private OpeningBookGenerator(int M, int N, int X) {
+		this.M = M;
+		this.N = N;
+		this.X = X;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.err.println("Usage: OpeningBookGenerator M N X plies seconds [directory]");
+			System.exit(1);
+		}
+		int M = Integer.parseInt(args[0]);
+		int N = Integer.parseInt(args[1]);
+		int X = Integer.parseInt(args[2]);
+		int plies = Integer.parseInt(args[3]);
+		int seconds = Integer.parseInt(args[4]);
+		Path directory = Paths.get(args.length > 5 ? args[5] : myPlayer.BOOK_DIRECTORY);
+
+		OpeningBookGenerator generator = new OpeningBookGenerator(M, N, X);
+		for (int side = 0; side < 2; side++) {
+			// the evaluation of myPlayer depends on the player it plays for
+			generator.player.initPlayer(M, N, X, side == 0, seconds);
+			generator.expand(new CXBoard(M, N, X), plies, side);
+		}
+		Path file = directory.resolve(OpeningBook.fileName(M, N, X));
+		generator.write(file);
+		System.out.println(generator.book.size() + " positions written to " + file);
+	}
+
+	// Explore the positions up to the given number of plies: side plays the book move, its opponent every move
+	private void expand(CXBoard B, int plies, int side) {
+		if (plies == 0 || B.gameState() != CXGameState.OPEN)
+			return;
+		if (B.currentPlayer() == side) {
+			// a position and its mirror image share the record, whose move refers to the canonical board
+			int[] entry = book.get(B.canonicalHash());
+			if (entry == null) {
+				int move = player.analyse(B);
+				entry = new int[] { player.lastScore(), B.canonicalColumn(move) };
+				book.put(B.canonicalHash(), entry);
+				System.out.println(B.numOfMarkedCells() + " plies, " + book.size() + " positions: move " + move + ", score " + entry[0]);
+			}
+			B.markColumn(B.canonicalColumn(entry[1]));
+			expand(B, plies - 1, side);
+			B.unmarkColumn();
+		} else {
+			for (int col = B.nextAvailableColumn(0); col != -1; col = B.nextAvailableColumn(col + 1)) {
+				B.markColumn(col);
+				expand(B, plies - 1, side);
+				B.unmarkColumn();
+			}
+		}
+	}
+
+	// Write the book file: the TreeMap already iterates the keys in increasing order, as required by the binary search
+	private void write(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(M);
+			out.writeInt(N);
+			out.writeInt(X);
+			out.writeInt(book.size());
+			for (Map.Entry<Long, int[]> e : book.entrySet()) {
+				out.writeLong(e.getKey());
+				out.writeInt(e.getValue()[0]);
+				out.writeInt(e.getValue()[1]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+package connectx.myPlayer;
+
+import connectx.CXBoard;
+import connectx.CXGameState;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parallel negamax alpha-beta search based on Young Brothers Wait.
+// At every node the first child (the eldest brother) is searched serially, then the remaining children
+// (the young brothers) are searched in parallel by a ForkJoinPool, each one on its own copy of the board.
+// The window of a node is shared with its running children: as soon as a child improves the bounds of its
+// parent the siblings still running narrow their windows, and a cutoff stops the whole subtree below the parent.
+public class ParallelSearch {
+
+	private static final int SPLIT_DEPTH = 3;		// nodes closer to the leaves are searched serially: splitting them costs more than it saves
+
+	private final myPlayer player;		// player owning the search (evaluation, serial search and time limit)
+	private final ForkJoinPool pool;
+	private TranspositionTable transpositionTable;		// table of the current search
+	private int bestMove;		// best move found by the last search
+	private final List<MoveOrdering> orderings = new ArrayList<MoveOrdering>();		// move ordering of every thread, for the statistics
+	private ThreadLocal<MoveOrdering> ordering;		// move ordering of the current thread
+	private ThreadLocal<IncrementalEvaluator> evaluator;		// evaluator of the current thread
+
+	public ParallelSearch(myPlayer player, int threads) {
+		this.player = player;
+		this.pool = new ForkJoinPool(threads);		// its worker threads are daemons, they don't keep the JVM alive
+	}
+
+	// Prepare for the search of a new move in the given configuration: every thread gets its own move ordering and
+	// evaluator, which are kept across moves (and games) as long as the configuration doesn't change
+	public void newSearch(int M, int N, int X) {
+		if (evaluator == null || !evaluator.get().fits(M, N, X))
+			evaluator = ThreadLocal.withInitial(() -> new IncrementalEvaluator(M, N, X));
+		if (ordering == null || orderings.isEmpty() || !orderings.get(0).fits(M, N)) {
+			synchronized (orderings) {
+				orderings.clear();
+			}
+			ordering = ThreadLocal.withInitial(() -> {
+				MoveOrdering order = new MoveOrdering(M, N);
+				synchronized (orderings) {
+					orderings.add(order);
+				}
+				return order;
+			});
+		}
+		synchronized (orderings) {
+			for (MoveOrdering order : orderings) {
+				order.newSearch();
+				order.resetStatistics();
+			}
+		}
+	}
+
+	// Number of cutoffs of the searches since the last call to newSearch
+	public long cutoffs() {
+		long cutoffs = 0;
+		synchronized (orderings) {
+			for (MoveOrdering order : orderings)
+				cutoffs += order.cutoffs();
+		}
+		return cutoffs;
+	}
+
+	// Number of cutoffs caused by the first move searched, since the last call to newSearch
+	public long firstMoveCutoffs() {
+		long cutoffs = 0;
+		synchronized (orderings) {
+			for (MoveOrdering order : orderings)
+				cutoffs += order.firstMoveCutoffs();
+		}
+		return cutoffs;
+	}
+
+	// Search the given position at the given depth, within the window (alpha, beta), and return its score for the player to move
+	public int search(CXBoard B, int depth, int alpha, int beta, TranspositionTable transpositionTable) {
+		this.transpositionTable = transpositionTable;
+		Node root = new Node(null, B.copy(), depth, 0, -1);
+		root.alpha = alpha;
+		root.beta = beta;
+		pool.invoke(root);
+		bestMove = root.bestCol;
+		return root.eval;
+	}
+
+	// Best move found by the last search
+	public int bestMove() {
+		return bestMove;
+	}
+
+	// Stop the worker threads
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+
+	// A node of the search tree, searched by a single task
+	private class Node extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Node parent;		// null for the root
+		private final CXBoard B;		// board of this node, owned by the task
+		private final int depth;
+		private final int ply;		// distance from the root
+		private final int col;		// move that leads from the parent to this node
+
+		private volatile int alpha = -myPlayer.INFINITY;		// bounds of this node, narrowed by the children as they complete
+		private volatile int beta = myPlayer.INFINITY;
+		private volatile boolean cutoff;		// set when the remaining children don't need to be searched
+		private int eval = -myPlayer.INFINITY;		// best score found, for the player to move
+		private int bestCol = -1;		// move that produced eval
+
+		Node(Node parent, CXBoard B, int depth, int ply, int col) {
+			this.parent = parent;
+			this.B = B;
+			this.depth = depth;
+			this.ply = ply;
+			this.col = col;
+		}
+
+		@Override
+		protected void compute() {
+			int score = search();
+			// the result of a young brother is reported to its parent, unless the subtree has been cancelled
+			if (parent != null && !aborted())
+				parent.report(col, -score);
+		}
+
+		// Search the node and return its score
+		private int search() {
+			int alpha = alpha();		// window inherited from the ancestors
+			int beta = beta();
+			long boardHash = B.canonicalHash();		// shared with the mirrored position, as in the serial search
+
+			// use the transposition table as in the serial search, except at the root which must always find its best move
+			long entry = transpositionTable.probe(boardHash);
+			int ttMove = B.canonicalColumn(TranspositionTable.move(entry));
+			if (parent != null && entry != 0 && TranspositionTable.depth(entry) >= depth) {
+				int score = myPlayer.fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT)
+					return eval = score;
+				if (bound == TranspositionTable.LOWER)
+					alpha = Math.max(alpha, score);
+				else
+					beta = Math.min(beta, score);
+				if (beta <= alpha)
+					return eval = score;
+			}
+
+			if (B.gameState() != CXGameState.OPEN) {
+				eval = player.score(B, evaluator.get(), ply);
+				transpositionTable.store(boardHash, myPlayer.toTable(eval, ply), TranspositionTable.MAX_DEPTH, TranspositionTable.EXACT, -1);
+				return eval;
+			}
+			if (depth <= 0)
+				return eval = player.score(B, evaluator.get(), ply);
+			// a stopped or cancelled search returns at once, its result is discarded
+			if (player.outOfTime() || aborted())
+				return eval = 0;
+
+			// small subtrees are searched serially on the board of this node
+			if (depth < SPLIT_DEPTH && parent != null)
+				return eval = player.pvs(B, ordering.get(), evaluator.get(), depth, ply, alpha, beta);
+
+			int alphaOrig = alpha, betaOrig = beta;
+			this.alpha = alpha;
+			this.beta = beta;
+
+			// the moves are sorted by the ordering of this thread, and copied: while this task waits for its children
+			// the thread can run other tasks at the same ply, which sort their moves in the same array
+			MoveOrdering order = ordering.get();
+			int count = order.sort(B, ply, ttMove);
+			int[] moves = Arrays.copyOf(order.moves(ply), count);
+
+			// the eldest brother is searched first, by this task and on this board
+			int first = moves[0];
+			B.play(first);
+			int score = -new Node(this, B, depth - 1, ply + 1, first).search();
+			B.undo();
+			report(first, score);
+
+			// then the young brothers are searched in parallel, each one on a copy of the board
+			if (!cutoff && !player.stopped()) {
+				List<Node> brothers = new ArrayList<Node>();
+				for (int k = 1; k < count; k++) {
+					CXBoard C = B.copy();
+					C.play(moves[k]);
+					brothers.add(new Node(this, C, depth - 1, ply + 1, moves[k]));
+				}
+				invokeAll(brothers);
+			}
+
+			// a cancelled or stopped search doesn't produce a reliable value: don't use it
+			if (aborted() || player.stopped())
+				return eval;
+
+			// the move that caused the cutoff becomes a killer move and gains history, in the ordering of this thread
+			if (cutoff) {
+				int index = 0;
+				while (moves[index] != bestCol)
+					index++;
+				ordering.get().cutoff(B, ply, depth, bestCol, index);
+			}
+
+			// the ancestors may have narrowed the window while the children were searched: classify the score against the final one
+			if (parent != null) {
+				alphaOrig = Math.max(alphaOrig, -parent.beta());
+				betaOrig = Math.min(betaOrig, -parent.alpha());
+			}
+			int bound;
+			if (eval <= alphaOrig)
+				bound = TranspositionTable.UPPER;
+			else if (eval >= betaOrig)
+				bound = TranspositionTable.LOWER;
+			else
+				bound = TranspositionTable.EXACT;
+			transpositionTable.store(boardHash, myPlayer.toTable(eval, ply), depth, bound, B.canonicalColumn(bestCol));
+			return eval;
+		}
+
+		// Update the score and the bounds of this node with the score of one of its moves (already negated)
+		private synchronized void report(int col, int score) {
+			if (bestCol == -1 || score > eval) {
+				eval = score;
+				bestCol = col;
+			}
+			alpha = Math.max(alpha, eval);
+			if (alpha() >= beta())
+				cutoff = true;		// the running brothers see it and stop
+		}
+
+		// Current lower bound of the node: the window of a node is its own one intersected with the (negated) window of its parent
+		private int alpha() {
+			return parent == null ? alpha : Math.max(alpha, -parent.beta());
+		}
+
+		// Current upper bound of the node
+		private int beta() {
+			return parent == null ? beta : Math.min(beta, -parent.alpha());
+		}
+
+		// Returns true if an ancestor had a cutoff, so that the result of this node is not needed anymore
+		private boolean aborted() {
+			for (Node n = parent; n != null; n = n.parent)
+				if (n.cutoff)
+					return true;
+			return false;
+		}
+	}
+
+}
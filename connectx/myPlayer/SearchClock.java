@@ -0,0 +1,85 @@
+package connectx.myPlayer;
+
+// Time limits of the search of a move, measured with System.nanoTime from the moment the move is requested.
+// The soft limit is checked between the iterations of iterative deepening: after it no new iteration is started,
+// since it would hardly complete. The hard limit stops the search: reading the clock at every node would cost too
+// much, so it is read only once every interval calls to expired. The interval adapts to the speed of the search
+// (nodes are much slower on large boards), so that the clock is read about every POLL_TIME nanoseconds.
+// Once expired, or stopped by the main thread, the clock stays stopped, and every search thread sees it and returns
+// to the root without storing incomplete results.
+public class SearchClock {
+
+	private static final long POLL_TIME = 1000000;		// desired time between two readings of the clock
+	private static final int MAX_INTERVAL = 1 << 16;		// largest number of calls to expired between two readings
+
+	private long start;		// time at which the search started, in nanoseconds
+	private long budget;		// time available for the move, in nanoseconds
+	private long softDeadline;
+	private long hardDeadline;
+	private volatile boolean stopped;		// true when the search must stop
+	// the polling state is shared by the search threads without synchronization: it only spaces the readings of the clock
+	private int polls;		// calls to expired since the last reading
+	private int interval = 1;		// calls to expired between two readings, kept across searches
+	private long lastPoll;		// time of the last reading
+
+	// Start the clock: the soft and hard limits are the given percentages of the time budget, in nanoseconds
+	public void start(long budget, int softPercent, int hardPercent) {
+		start = System.nanoTime();
+		this.budget = budget;
+		softDeadline = start + budget / 100 * softPercent;
+		hardDeadline = start + budget / 100 * hardPercent;
+		polls = 0;
+		lastPoll = start;
+		stopped = false;
+	}
+
+	// Returns true if a new iteration should not be started
+	public boolean softExpired() {
+		return stopped || System.nanoTime() - softDeadline >= 0;
+	}
+
+	// Returns true if the search has to stop, called at every node
+	public boolean expired() {
+		if (stopped)
+			return true;
+		if (++polls < interval)
+			return false;
+		polls = 0;
+		long now = System.nanoTime();
+		// adapt the interval: halve it if the readings are too far apart, double it if they are too close
+		if (now - lastPoll > 2 * POLL_TIME)
+			interval = Math.max(interval / 2, 1);
+		else if (now - lastPoll < POLL_TIME / 2)
+			interval = Math.min(interval * 2, MAX_INTERVAL);
+		lastPoll = now;
+		if (now - hardDeadline >= 0)
+			stopped = true;
+		return stopped;
+	}
+
+	// Stop the search, the running threads return as soon as they call expired
+	public void stop() {
+		stopped = true;
+	}
+
+	// Returns true if the search has been stopped, by the hard limit or by stop: the last iteration is incomplete
+	public boolean stopped() {
+		return stopped;
+	}
+
+	// Time available for the move, in nanoseconds
+	public long budget() {
+		return budget;
+	}
+
+	// System.nanoTime at which the given percentage of the time budget is used
+	public long deadline(int percent) {
+		return start + budget / 100 * percent;
+	}
+
+	// Time elapsed since the start, in milliseconds
+	public long elapsed() {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+}
@@ -1,41 +1,121 @@
 package connectx.myPlayer;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 // Class representing a Transposition Table used for storing and retrieving game state evaluations.
+//
+// The table is a fixed-size array of two-entry buckets addressed by the low bits of the hash:
+// the first entry of a bucket keeps the deepest search seen (depth-preferred), the second one
+// is always replaced. Each entry is a pair of longs: the packed data and the full hash XORed with it
+//
+//   bits  0-31  score
+//   bits 32-39  search depth
+//   bits 40-41  bound type (EXACT, LOWER, UPPER)
+//   bits 42-53  best move + 1 (0 if there is no best move)
+//   bits 54-61  generation (game) in which the entry was stored
+//
+// A data value of 0 marks an empty entry, since stored entries always have a bound type.
+// Each player owns its table: at the beginning of a game the generation is increased, so that
+// entries of the previous games are ignored and replaced first without clearing the arrays.
+//
+// The table is shared without locks by the search threads. Two threads storing into the same
+// entry at the same time may leave the key of one and the data of the other: since the key is
+// stored as hash ^ data, such a torn entry no longer matches any hash and is rejected by probe.
 public class TranspositionTable {
-    
-    private static TranspositionTable instance;         // singleton instance for the TranspositionTable class
 
-    private HashMap<Long, Double> table;            // HashMap to store the hash-value pairs
+    public static final int EXACT = 1;      // the score is the exact value of the position
+    public static final int LOWER = 2;      // the score is a lower bound (the search failed high)
+    public static final int UPPER = 3;      // the score is an upper bound (the search failed low)
 
-    // Constructor to enforce singleton pattern
-    private TranspositionTable() {
-        table = new HashMap<>();
+    public static final int MAX_DEPTH = 255;        // largest depth that fits in an entry
+
+    private static final long GENERATION = 0xFFL << 54;     // generation bits of an entry
+
+    private static final int BUCKET_BYTES = 32;     // two entries of two longs
+
+    private final int megabytes;    // memory budget of the table
+    private final long[] keys;      // hash ^ data of each entry
+    private final long[] data;      // packed score, depth, bound and move of each entry
+    private final int mask;         // number of buckets - 1
+    private long generation;        // generation of the current game, already shifted in place
+
+    // Constructor to allocate the largest power-of-two number of buckets that fits in the given number of megabytes
+    public TranspositionTable(int megabytes) {
+        long buckets = Long.highestOneBit(Math.max((long) megabytes << 20, BUCKET_BYTES) / BUCKET_BYTES);
+        buckets = Math.min(buckets, 1 << 29);      // keep the array length within int range
+        this.megabytes = megabytes;
+        keys = new long[(int) buckets * 2];
+        data = new long[(int) buckets * 2];
+        mask = (int) buckets - 1;
+        generation = 1L << 54;
+    }
+
+    // Memory budget the table was sized for
+    public int megabytes() {
+        return megabytes;
+    }
+
+    // Start a new game: the entries of the previous games become stale
+    public void newGame() {
+        generation = (generation + (1L << 54)) & GENERATION;
+        if (generation == 0) {
+            // the generation counter wrapped around: really clear the table so that very old entries don't come back
+            Arrays.fill(keys, 0);
+            Arrays.fill(data, 0);
+            generation = 1L << 54;
+        }
     }
 
-    // Get the singleton instance of the TranspositionTable class
-    public static TranspositionTable getInstance() {
-        if (instance == null) {
-            instance = new TranspositionTable();
+    // Store the evaluation of the given hash, searched at the given depth, with its bound type and best move (-1 if none)
+    public void store(long hash, int score, int depth, int bound, int move) {
+        int i = ((int) hash & mask) << 1;
+        long entry = (score & 0xFFFFFFFFL)
+                   | (long) Math.min(Math.max(depth, 0), MAX_DEPTH) << 32
+                   | (long) bound << 40
+                   | (long) ((move + 1) & 0xFFF) << 42
+                   | generation;
+
+        // the first entry is replaced by stale entries, by deeper (or equally deep) searches and by newer results for the same position
+        long old = data[i];
+        if ((old & GENERATION) != generation || (keys[i] ^ old) == hash || depth >= depth(old)) {
+            keys[i] = hash ^ entry;
+            data[i] = entry;
+        } else {
+            keys[i + 1] = hash ^ entry;
+            data[i + 1] = entry;
         }
-        return instance;
     }
 
-    // Store the given hash and corresponding score in the table
-    public void store(long hash, double score) {
-        table.put(hash, score);
+    // Retrieve the packed entry associated with the given hash, or 0 if the table doesn't contain it
+    public long probe(long hash) {
+        int i = ((int) hash & mask) << 1;
+        long entry = data[i];
+        if ((keys[i] ^ entry) == hash && (entry & GENERATION) == generation)
+            return entry;
+        entry = data[i + 1];
+        if ((keys[i + 1] ^ entry) == hash && (entry & GENERATION) == generation)
+            return entry;
+        return 0;
     }
 
-    // Check if the table contains the given hash
-    public boolean contains(long hash) {
-        return table.containsKey(hash);
+    // Score of a packed entry
+    public static int score(long entry) {
+        return (int) entry;
     }
 
-    // Retrieve the score associated with the given hash
-    public double retrieve(long hash) {
-        return table.get(hash);
+    // Search depth of a packed entry
+    public static int depth(long entry) {
+        return (int) (entry >>> 32) & 0xFF;
+    }
+
+    // Bound type of a packed entry
+    public static int bound(long entry) {
+        return (int) (entry >>> 40) & 0x3;
+    }
+
+    // Best move of a packed entry, -1 if there is none
+    public static int move(long entry) {
+        return ((int) (entry >>> 42) & 0xFFF) - 1;
     }
-    
-}
 
+}
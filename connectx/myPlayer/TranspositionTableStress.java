@@ -0,0 +1,89 @@
+package connectx.myPlayer;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stress check of the lock-free TranspositionTable.
+// Several threads store and probe, without any synchronization, a small set of hashes in a small table, so that they
+// keep racing on the same buckets. The score, depth, bound type and move stored for a hash are all derived from the
+// hash itself: every entry returned by probe must decode to the data of the probed hash, otherwise a torn entry got
+// through and the check fails with a non-zero exit status.
+//
+//   java -cp ".." connectx.myPlayer.TranspositionTableStress [threads] [operations per thread] [megabytes]
+public class TranspositionTableStress {
+
+	private static final int KEY_BITS = 16;		// the threads share 2^16 distinct hashes
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long operations = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+		int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		TranspositionTable table = new TranspositionTable(megabytes);
+		AtomicLong hits = new AtomicLong();
+		AtomicLong corrupted = new AtomicLong();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			workers[t] = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(seed);
+				long h = 0, c = 0;
+				for (long k = 0; k < operations; k++) {
+					long hash = hash(random.nextInt(1 << KEY_BITS));
+					if (random.nextBoolean())
+						table.store(hash, score(hash), depth(hash), bound(hash), move(hash));
+					else {
+						long entry = table.probe(hash);
+						if (entry == 0)
+							continue;
+						h++;
+						if (TranspositionTable.score(entry) != score(hash) || TranspositionTable.depth(entry) != depth(hash)
+								|| TranspositionTable.bound(entry) != bound(hash) || TranspositionTable.move(entry) != move(hash))
+							c++;
+					}
+				}
+				hits.addAndGet(h);
+				corrupted.addAndGet(c);
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+
+		System.out.println(threads + " threads, " + operations + " operations each, " + table.megabytes() + " MB table");
+		System.out.println("Probe hits: " + hits + ", corrupted: " + corrupted);
+		if (hits.get() == 0) {
+			System.err.println("No probe hit: the check didn't test anything");
+			System.exit(1);
+		}
+		if (corrupted.get() != 0) {
+			System.err.println("Some probe hits don't match their hash");
+			System.exit(1);
+		}
+	}
+
+	// Spread the key on all the bits of the hash, so that the hashes collide on the buckets of the table
+	private static long hash(int key) {
+		long z = (key + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static int score(long hash) {
+		return (int) (hash >>> 32);
+	}
+
+	private static int depth(long hash) {
+		return (int) (hash >>> 8) & TranspositionTable.MAX_DEPTH;
+	}
+
+	private static int bound(long hash) {
+		return TranspositionTable.EXACT + (int) ((hash >>> 20) & 0x7FFFFFFF) % 3;
+	}
+
+	private static int move(long hash) {
+		return (int) ((hash >>> 40) & 0x7FF) - 1;		// -1 (no move) included
+	}
+
+}
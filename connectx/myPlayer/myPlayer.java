@@ -3,24 +3,53 @@ package connectx.myPlayer;
 import connectx.CXPlayer;
 import connectx.CXBoard;
 import connectx.CXGameState;
-import connectx.CXCellState;
-import java.util.Random;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class myPlayer implements CXPlayer {
+
+	// Scores are integers from the point of view of the player to move (negamax). A won game is worth WIN minus
+	// the number of plies from the root, so that faster wins are preferred and slower losses are delayed
+	static final int WIN = 1000000000;
+	static final int WIN_MIN = WIN - 1000000;		// smallest score of a won position
+	static final int EVAL_MAX = WIN_MIN - 1;		// largest heuristic score
+	static final int INFINITY = WIN + 1;
+	private static final int ASPIRATION = 500;		// half width of the first aspiration window
+	private static final int SOFT_LIMIT = 60;		// percentage of the timeout after which no new iteration is started
+	private static final int HARD_LIMIT = 90;		// percentage of the timeout after which the search is stopped
+	private static final int SOLVER_LIMIT = 40;		// percentage of the timeout that the endgame solver can use
+	static final String BOOK_DIRECTORY = "myPlayer";		// default directory of the opening books, relative to connectx/
 	
-	private long start;    
+	private final SearchClock clock = new SearchClock();		// time limits of the current search
 	private int M;		// number of rows 
 	private int N;		// number of columns
 	private int X;		// number of pieces to connect in order to win
 	private int timeout;		// number of seconds to make the move 
-	private int buffer;			// buffer used by alpha-beta
 	private int middleCol;			// index of the middle column
-	private CXGameState myWin;		
-	private CXGameState yourWin;
 	private boolean P1;				
 	private TranspositionTable transpositionTable;		
-	private ZobristHashing zobristHashing;
-	private Random rand;
+	private int[] rootMoves;		// root moves, in the order in which they are searched
+	private int[] rootScores;		// score of each root move in the last iteration
+	private int rootMoveCount;
+	private int bestRootMove;		// best move found by the last root search
+	private int threads;		// number of search threads, the main one included
+	private ExecutorService helpers;		// pool of the helper threads of the Lazy SMP search
+	private boolean ybw;		// true if the Young Brothers Wait engine is used instead of Lazy SMP
+	private ParallelSearch parallelSearch;		// Young Brothers Wait engine, null when Lazy SMP is used
+	private MoveOrdering[] orderings;		// move ordering of each Lazy SMP thread, the main one first
+	private IncrementalEvaluator[] evaluators;		// evaluator of each Lazy SMP thread, the main one first
+	private boolean stats;		// print the statistics of each search on the standard error
+	private int searchDepth;		// depth of the last completed iteration of the last search
+	private int searchScore;		// score of the best move of the last search
+	private OpeningBook book;		// opening book of the current configuration, null if there is none
+	private EndgameSolver solver;		// exact solver of the last moves, null if the board doesn't fit its bitboards
+	private ExecutorService ponderer;		// thread that searches while the opponent thinks, null if pondering is disabled
+	private Future<?> ponderTask;		// search running on the opponent's time, if any
 	
     public myPlayer() {
         
@@ -28,36 +57,105 @@ public class myPlayer implements CXPlayer {
 
 	@Override
 	public void initPlayer(int M, int N, int X, boolean first, int timeout_in_secs) {
+		stopPondering();  	// the previous game may have ended while pondering
 		this.M = M;
 		this.N = N;
 		this.X = X;
-		this.myWin = first ? CXGameState.WINP1 : CXGameState.WINP2;
-		this.yourWin = first ? CXGameState.WINP2 : CXGameState.WINP1;
 		this.P1 = first ? true : false;
 		this.timeout = timeout_in_secs;
-		this.buffer = 90;
 		this.middleCol = N/2;
-		rand = new Random(System.currentTimeMillis());
-		transpositionTable = TranspositionTable.getInstance();
-		zobristHashing = new ZobristHashing(M, N);
+		this.rootMoves = new int[N];
+		this.rootScores = new int[N];
+		// the transposition table is owned by this player and reused across games, if it still has the requested size
+		int hashMB = Integer.getInteger("myPlayer.hashMB", 64);
+		if (transpositionTable == null || transpositionTable.megabytes() != hashMB)
+			transpositionTable = new TranspositionTable(hashMB);
+		else
+			transpositionTable.newGame();
+		// Lazy SMP: the helper threads search the same position as the main thread on their own copies of the board,
+		// sharing only the transposition table. Young Brothers Wait ("-DmyPlayer.search=ybw"): the tree is split among
+		// the threads of a ForkJoinPool. The threads are kept across games if the configuration doesn't change
+		int threads = Math.max(1, Integer.getInteger("myPlayer.threads", Runtime.getRuntime().availableProcessors()));
+		boolean ybw = "ybw".equals(System.getProperty("myPlayer.search", "smp"));
+		if (this.threads != threads || this.ybw != ybw) {
+			if (helpers != null)
+				helpers.shutdownNow();
+			if (parallelSearch != null)
+				parallelSearch.shutdown();
+			helpers = null;
+			parallelSearch = null;
+			if (ybw)
+				parallelSearch = new ParallelSearch(this, threads);
+			else if (threads > 1)
+				helpers = Executors.newFixedThreadPool(threads - 1, r -> {
+					Thread t = new Thread(r, "myPlayer-helper");
+					t.setDaemon(true);		// helper threads must not keep the JVM alive
+					return t;
+				});
+			this.threads = threads;
+			this.ybw = ybw;
+		}
+		// killer moves and history scores are per thread, and kept across games played on boards of the same size
+		if (orderings == null || orderings.length != threads || !orderings[0].fits(M, N)) {
+			orderings = new MoveOrdering[threads];
+			for (int id = 0; id < threads; id++)
+				orderings[id] = new MoveOrdering(M, N);
+		}
+		if (evaluators == null || evaluators.length != threads || !evaluators[0].fits(M, N, X)) {
+			evaluators = new IncrementalEvaluator[threads];
+			for (int id = 0; id < threads; id++)
+				evaluators[id] = new IncrementalEvaluator(M, N, X);
+		}
+		this.stats = Boolean.getBoolean("myPlayer.stats");  	// "-DmyPlayer.stats=true"
+		// the opening book of this configuration, generated by OpeningBookGenerator, is mapped in memory if it exists
+		if (book == null || !book.fits(M, N, X))
+			book = OpeningBook.open(Paths.get(System.getProperty("myPlayer.book", BOOK_DIRECTORY)), M, N, X);
+		if (stats && book != null)
+			System.err.println("myPlayer: opening book of " + book.size() + " positions");
+		// the endgame solver keeps its table and its measured speed across games of the same configuration
+		if (!EndgameSolver.fits(M, N))
+			solver = null;
+		else if (solver == null || !solver.fits(M, N, X))
+			solver = new EndgameSolver(M, N, X);
+		// pondering ("-DmyPlayer.ponder=true"): after each move, keep searching on the opponent's time
+		boolean ponder = Boolean.getBoolean("myPlayer.ponder");
+		if (ponder && ponderer == null)
+			ponderer = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "myPlayer-ponder");
+				t.setDaemon(true);
+				return t;
+			});
+		else if (!ponder && ponderer != null) {
+			ponderer.shutdownNow();
+			ponderer = null;
+		}
 	}
 
 	@Override
 	public int selectColumn(CXBoard B) {
-		start = System.currentTimeMillis();  		// stores the start time
+		stopPondering();  	// the opponent has moved: what the pondering search found is in the transposition table
+		clock.start(timeout * 1000000000L, SOFT_LIMIT, HARD_LIMIT);  		// starts the clock of the move
+		int col = chooseColumn(B);
+		if (ponderer != null)
+			startPondering(B, col);
+		return col;
+	}
 
+
+	// Choose the move to play in the given position
+	private int chooseColumn(CXBoard B) {
 		// check if we can win immediately
-		for (int col = 0; col < N; col++) {
-			if (!B.fullColumn(col)) {
-				// simulate the move
-				B.markColumn(col);
-				// check if it leads to victory, if yes, remove the move and return that move
-				if (B.gameState() == myWin) {
-					B.unmarkColumn();
-					return col;
-				}
-				// remove the move
-				B.unmarkColumn();
+		int[] availableColumns = new int[N];
+		if (B.getWinningColumns(B.currentPlayer(), availableColumns) > 0)
+			return availableColumns[0];
+
+		// if the position is in the opening book, play its move without searching
+		if (book != null) {
+			int col = B.canonicalColumn(book.move(B.canonicalHash()));		// the book move refers to the canonical board
+			if (col >= 0 && col < N && !B.fullColumn(col)) {
+				if (stats)
+					System.err.println("myPlayer: book move " + col + ", score " + book.score(B.canonicalHash()));
+				return col;
 			}
 		}
 
@@ -70,637 +168,442 @@ public class myPlayer implements CXPlayer {
 			return middleCol;
 		
 		// if only one column is available, choose that one
-		Integer[] availableColumns = B.getAvailableColumns();
-		if (availableColumns.length == 1)
+		int available = B.getAvailableColumns(availableColumns);
+		if (available == 1)
 			return availableColumns[0];
 			
+		// near the end of the game the remaining tree can be solved exactly: try it if the solver is expected to finish in
+		// its share of the time, otherwise (or if it doesn't finish) the heuristic search uses the rest of the time
+		if (solver != null && solver.estimatedTime(B.numOfFreeCells()) < clock.budget() / 100 * SOLVER_LIMIT) {
+			int col = solver.solve(B, clock.deadline(SOLVER_LIMIT));
+			if (stats)
+				System.err.printf("myPlayer: endgame solver %s in %d ms%n", col == -1 ? "stopped" : "solved", clock.elapsed());
+			if (col != -1)
+				return col;
+		}
+
 		// otherwise we have to explore the game tree and choose a move
-		// perform a search on the game tree using alpha-beta pruning with iterative deepening
+		int bestMove = iterativeDeepening(B, availableColumns, available);
+		if (stats)
+			printStatistics(searchDepth);
+		return bestMove;
+	}
+
+
+	// Perform a search on the game tree using principal variation search with iterative deepening, until the clock
+	// expires, and return the best move of the last completed iteration
+	private int iterativeDeepening(CXBoard B, int[] availableColumns, int available) {
 		int depth = 1;  	// set the depth to 1
-		double bestMoveScore = 0;  		// set the best move score to 0
-		int bestMove = availableColumns[availableColumns.length / 2];  // choose the central column among the available ones in case alpha-beta doesn't find a better move in the available time
+		int bestMoveScore = 0;  		// set the best move score to 0
+		int bestMove = availableColumns[available / 2];  // choose the central column among the available ones in case the search doesn't find a better move in the available time
+		initRootMoves(B, availableColumns, available);
+		for (MoveOrdering order : orderings) {
+			order.newSearch();
+			order.resetStatistics();
+		}
+		if (parallelSearch != null)
+			parallelSearch.newSearch(M, N, X);
+		List<Future<?>> helperTasks = startHelpers(B);  	// the helper threads fill the transposition table while the main thread searches
 		
-		// as long as we have available time, increase the search depth of the game tree
-		while ((System.currentTimeMillis() - start) / 1000.0 < timeout - 0.01) {
-			// call alphabeta with the board, true (indicating our turn), depth, and initially set alpha and beta to positive and negative infinity
-			double moveScore = alphabeta(B, true, depth, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
-			// if we run out of time after alphabeta execution, exit the loop
-			if ((System.currentTimeMillis() - start) / 1000.0 >= timeout - 0.01)
+		// as long as we have available time, increase the search depth of the game tree: an iteration started after the
+		// soft limit would be stopped by the hard limit before completing, and one deeper than the free cells would search
+		// the same tree as the previous one
+		while (!clock.softExpired() && depth <= B.numOfFreeCells()) {
+			// aspiration window: search around the score of the previous iteration, the first iteration and won or lost positions use the full window
+			int delta = ASPIRATION;
+			int alpha = -INFINITY, beta = INFINITY;
+			if (depth > 1 && Math.abs(bestMoveScore) <= EVAL_MAX) {
+				alpha = bestMoveScore - delta;
+				beta = bestMoveScore + delta;
+			}
+			int moveScore;
+			while (true) {
+				moveScore = search(B, depth, alpha, beta);
+				if (clock.stopped())
+					break;
+				// if the score falls outside the window it is only a bound: widen the window on that side and search again
+				if (moveScore <= alpha)
+					alpha = Math.max(alpha - delta, -INFINITY);
+				else if (moveScore >= beta)
+					beta = Math.min(beta + delta, INFINITY);
+				else
+					break;
+				delta = (int) Math.min(delta * 4L, INFINITY);  	// bounded, so that the window bounds above never overflow
+			}
+			// if the search was stopped its result is incomplete: exit the loop and keep the one of the last completed iteration
+			if (clock.stopped())
 				break;
-			// update the best score found
+			// update the best score and move found, and search the best moves first in the next iteration
 			bestMoveScore = moveScore;
-			// find the move corresponding to the new score calculated by alphabeta at a certain depth
-			bestMove = getBestMove(B, true, depth, bestMoveScore);
+			bestMove = bestRootMove;
+			sortRootMoves();
 			depth++;  // increment the depth
 		}
+		stopHelpers(helperTasks);
+		searchDepth = depth - 1;
+		searchScore = bestMoveScore;
 		return bestMove;
 	}
-	
 
-	private double alphabeta(CXBoard B, boolean myTurn, int depth, double alpha, double beta) {
-		double eval;  	// best value found
-		Integer[] availableColumns = B.getAvailableColumns();
-		long boardHash = zobristHashing.calculateBoardHash(B);  	// calculate the key corresponding to the current game state using Zobrist Hashing
-		
-		if (transpositionTable.contains(boardHash))  		// check if the hash table already contains the evaluation of the current game state
-			return transpositionTable.retrieve(boardHash);  	// if positive, return that value directly
-		
-		// if depth reaches 0 or the game is no longer open or the available time expires, then evaluate the game state
-		if (depth <= 0 || B.gameState() != CXGameState.OPEN || (System.currentTimeMillis() - start) / 1000.0 > timeout * (buffer / 100.0)) {
-			eval = evaluate(B);
+
+	// Search the given position until the timeout, without the opening book and the shortcuts of selectColumn, and
+	// return the best move: used by OpeningBookGenerator
+	int analyse(CXBoard B) {
+		clock.start(timeout * 1000000000L, HARD_LIMIT, HARD_LIMIT);
+		int[] availableColumns = new int[N];
+		int available = B.getAvailableColumns(availableColumns);
+		return iterativeDeepening(B, availableColumns, available);
+	}
+
+
+	// Score of the best move of the last search, for the player to move
+	int lastScore() {
+		return searchScore;
+	}
+
+
+	// Start searching the position after our move while the opponent thinks: the opponent's replies are searched as
+	// in a normal search, the most likely first, and the results are left in the transposition table for our next move
+	private void startPondering(CXBoard B, int col) {
+		CXBoard C = B.copy();
+		C.markColumn(col);
+		if (C.gameState() != CXGameState.OPEN)
+			return;
+		int[] availableColumns = new int[N];
+		int available = C.getAvailableColumns(availableColumns);
+		// the opponent has the same timeout as us, pondering is stopped as soon as the opponent moves
+		clock.start(timeout * 1000000000L, 100, 100);
+		ponderTask = ponderer.submit(() -> {
+			iterativeDeepening(C, availableColumns, available);
+		});
+	}
+
+
+	// Stop the search on the opponent's time, if any, and wait for it
+	private void stopPondering() {
+		if (ponderTask == null)
+			return;
+		clock.stop();
+		try {
+			ponderTask.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// nothing to do: the result of pondering is only what it left in the transposition table
 		}
+		ponderTask = null;
+	}
 
-		// if it's our turn try to maximize the value
-		else if (myTurn) {
-			eval = Double.NEGATIVE_INFINITY;
-			// check available columns
-			for (int col : availableColumns) {
-				// simulate the move
-				B.markColumn(col);
-				// update the eval value by taking the maximum value among the children
-				eval = Math.max(eval, alphabeta(B, false, depth - 1, alpha, beta));
-				// update the alpha value by taking the maximum between alpha and eval
-				alpha = Math.max(eval, alpha);
-				// remove the move
-				B.unmarkColumn();
-				// check if pruning is possible
-				if (beta <= alpha) {
-					break;
-				}
-			}
+
+	// Starts the helper threads of the Lazy SMP search, each one on its own copy of the board
+	private List<Future<?>> startHelpers(CXBoard B) {
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int id = 1; helpers != null && id < threads; id++) {
+			CXBoard C = B.copy();
+			MoveOrdering order = orderings[id];
+			IncrementalEvaluator evaluator = evaluators[id];
+			int first = 1 + id % 2;  	// half of the helpers search one ply deeper than the main thread, to spread the work on different depths
+			tasks.add(helpers.submit(() -> {
+				// iterative deepening until the main thread is done or there are no more moves to search
+				for (int depth = first; !clock.stopped() && depth <= C.numOfFreeCells(); depth++)
+					pvs(C, order, evaluator, depth, 0, -INFINITY, INFINITY);
+			}));
 		}
-		// if it's the opponent's turn try to minimize the value
-		else {
-			eval = Double.POSITIVE_INFINITY;
-			// check available columns
-			for (int col : availableColumns) {
-				// simulate the move
-				B.markColumn(col);
-				// update the eval value by taking the minimum value among the children
-				eval = Math.min(eval, alphabeta(B, true, depth - 1, alpha, beta));
-				// update the beta value by taking the minimum between beta and eval
-				beta = Math.min(eval, beta);
-				// remove the move
-				B.unmarkColumn();
-				// check if pruning is possible
-				if (beta <= alpha) {
+		return tasks;
+	}
+
+
+	// Stops the helper threads and waits for them, so that no search is left running after the move is returned
+	private void stopHelpers(List<Future<?>> tasks) {
+		clock.stop();
+		boolean interrupted = false;
+		for (Future<?> task : tasks) {
+			while (true) {
+				try {
+					task.get();
 					break;
+				} catch (InterruptedException e) {
+					interrupted = true;  	// keep waiting: a helper still running would race with the next search
+				} catch (ExecutionException e) {
+					break;  	// nothing to do: the result of the helpers is only what they left in the transposition table
 				}
 			}
 		}
-		transpositionTable.store(boardHash, eval);  // before returning the value, store it in the transposition table
-		return eval;
-	}	
+		if (interrupted)
+			Thread.currentThread().interrupt();  	// keep the interruption for the caller
+	}
 	
 
-	private int getBestMove(CXBoard B, boolean myTurn, int depth, double targetScore) {
-		Integer[] availableColumns = B.getAvailableColumns();		
-		int bestMove = availableColumns[rand.nextInt(availableColumns.length)];
-		double scoreThreshold = 1;  	// set a threshold so that the search for the score doesn't have to be exactly precise but falls within a certain range
-		double bestMoveScore = myTurn ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;  		// the best score is set to + or - infinity depending on which player is playing
-		
-		// if we have no available time left, return the best score
-		if ((System.currentTimeMillis() - start) / 1000.0 < timeout) {
-			// iterate through available columns
-			for (int col : availableColumns) {
-				// simulate making the move
-				B.markColumn(col);
-				// calculate the score of the new move with alphabeta
-				double moveScore = alphabeta(B, !myTurn, depth - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
-				// remove the move
-				B.unmarkColumn();
-				// check if the found score matches the one we are looking for
-				if (Math.abs(moveScore - targetScore) <= scoreThreshold)
-					return col;
-				// if the score doesn't match but is better than the previously found one, update it
-				if ((myTurn && moveScore > bestMoveScore) || (!myTurn && moveScore < bestMoveScore)) {
-					bestMoveScore = moveScore;
-					bestMove = col;
-				}
-			}
+	// Prints the depth reached by the last search, the time it took and how well its moves were ordered
+	private void printStatistics(int depth) {
+		long cutoffs = 0, firstMoveCutoffs = 0;
+		for (MoveOrdering order : orderings) {
+			cutoffs += order.cutoffs();
+			firstMoveCutoffs += order.firstMoveCutoffs();
 		}
-		return bestMove;
+		if (parallelSearch != null) {
+			cutoffs = parallelSearch.cutoffs();
+			firstMoveCutoffs = parallelSearch.firstMoveCutoffs();
+		}
+		System.err.printf("myPlayer: depth %d in %d ms, %d cutoffs, %.1f%% by the first move%n", depth, clock.elapsed(), cutoffs,
+				cutoffs == 0 ? 0.0 : 100.0 * firstMoveCutoffs / cutoffs);
 	}
 
 
-	private double evaluate(CXBoard B) {
-		// if the current game state leads to our win, return positive infinity
-		if (B.gameState() == myWin)
-			return Double.POSITIVE_INFINITY;
-		// if the current game state leads to the opponent's win, return negative infinity
-		if (B.gameState() == yourWin)
-			return Double.NEGATIVE_INFINITY;
-		// if the current game state leads to a draw, return 0
-		else if (B.gameState() == CXGameState.DRAW)
-			return 0.0;
-		// otherwise, return a value based on the configuration of the cells
-		else {
-			boolean myThreats = checkForMajorThreats(B, P1 ? true : false);  // check if we can win on the next move
-			if (myThreats)
-				return Double.POSITIVE_INFINITY;
-			boolean yourThreats = checkForMajorThreats(B, P1 ? false : true);  // check if we can lose on the next move
-			if (yourThreats)
-				return Double.NEGATIVE_INFINITY;
-			double connections = countConnections(B, P1 ? true : false);  // check the sequences on the game board
-			return connections;
+	// Search the root position with the selected engine and return its score for our player, the best move is left in bestRootMove
+	private int search(CXBoard B, int depth, int alpha, int beta) {
+		if (parallelSearch != null) {
+			int score = parallelSearch.search(B, depth, alpha, beta, transpositionTable);
+			bestRootMove = parallelSearch.bestMove();
+			return score;
 		}
-	}	
+		return rootSearch(B, depth, alpha, beta);
+	}
 
 
-	private double countConnections(CXBoard B, boolean myTurn) {
-		double bestScore;
-		// initialize bestScore depending on who's playing 
-		if (myTurn)
-			bestScore = Double.NEGATIVE_INFINITY;
-		else
-			bestScore = Double.POSITIVE_INFINITY;
-		
-		// iterate through the columns
-		for (int col = 0; col < N; col++) {
-			if (!B.fullColumn(col)) {
-				// simulate the move
-				B.markColumn(col);
-				double colScore = 0.0;
-				// count our connections
-				colScore += countRows(B, myTurn);
-				colScore += countDiagonals(B, myTurn);
-				colScore += countColumns(B, myTurn);
-				// count opponent's connections
-				colScore -= countRows(B, !myTurn);
-				colScore -= countDiagonals(B, !myTurn);
-				colScore -= countColumns(B, !myTurn);
-				// if the score is better than what has been found so far, update it
-				if ((myTurn && colScore > bestScore) || (!myTurn && colScore < bestScore)) {
-					bestScore = colScore;
-				}
-				// remove the move
-				B.unmarkColumn();
-			}
-		}
-		return bestScore;
+	// Prepare the root moves for a new search: the available columns, with the best move of the transposition table first
+	private void initRootMoves(CXBoard B, int[] availableColumns, int available) {
+		int ttMove = B.canonicalColumn(TranspositionTable.move(transpositionTable.probe(B.canonicalHash())));
+		rootMoveCount = 0;
+		if (ttMove >= 0 && !B.fullColumn(ttMove))
+			rootMoves[rootMoveCount++] = ttMove;
+		for (int k = 0; k < available; k++)
+			if (availableColumns[k] != ttMove)
+				rootMoves[rootMoveCount++] = availableColumns[k];
+		for (int k = 0; k < rootMoveCount; k++)
+			rootScores[k] = -INFINITY;
 	}
 
 
-	// Returns the maximum height among all columns
-	private int highestColumn(CXBoard B) {
-		int max = 0;
-		int count;
-		int row;
-		int col = 0;
-		// iterate through all columns
-		while (col < N) {
-			count = 0;
-			row = M - 1;
-			// start from the bottom row
-			while (row >= 0) {
-				// if the cell is not free, increment the counter.
-				if (B.cellState(row, col) != CXCellState.FREE) {
-					count++;
-					row--;
-				} else {
-					// Move to the next column if the cell is free.
-					break;
-				}
+	// Sort the root moves by decreasing score of the last iteration (insertion sort: the order rarely changes much)
+	private void sortRootMoves() {
+		for (int k = 1; k < rootMoveCount; k++) {
+			int move = rootMoves[k], score = rootScores[k];
+			int h = k - 1;
+			while (h >= 0 && rootScores[h] < score) {
+				rootMoves[h + 1] = rootMoves[h];
+				rootScores[h + 1] = rootScores[h];
+				h--;
 			}
-			// update the maximum height
-			if (count > max)
-				max = count;
-			if (count == M)
-				return M;
-			col++;
+			rootMoves[h + 1] = move;
+			rootScores[h + 1] = score;
 		}
-		return max;
 	}
 
 
-	// Checks the formed connections in rows and calculate a score
-	private double countRows(CXBoard B, boolean myTurn) {
-		CXCellState myPlayer = myTurn ? CXCellState.P1 : CXCellState.P2;
-		CXCellState otherPlayer = myTurn ? CXCellState.P2 : CXCellState.P1;
-		double rowScore = 0.0;
-		int maxHeight = M - highestColumn(B); 		// Get the maximum height among all columns
-		
-		for (int row = M - 1; row >= maxHeight; row--) {
-			for (int col = 0; col <= N - X; col++) {
-				int myPieces = 0;
-				int myPieceLastPos = -1;
-				int freeSpaces = 0;
-				int freeSpaceFirstPos = -1;
-				int freeSpaceLastPos = -1;
-				
-				// to understand better let's assume X = 4, however it works with any X value  
-				for (int i = 0; i < X; i++) {
-					int currentCol = col + i;
-
-					if (B.cellState(row, currentCol) == myPlayer) {
-						myPieces++;
-						myPieceLastPos = i;
-
-						// Scenario: FREE P1 FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == X - 2) {
-							if (currentCol < N - 1) {
-								if (B.cellState(row, currentCol + 1) == CXCellState.FREE) {
-									rowScore += 10000;
-								} else {
-									rowScore += 10;
-								}
-								col++;
-							} else {
-								rowScore += 10;
-							}
-							break;
-						}
-
-						// Scenario: FREE FREE P1 P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == 1) {
-							if (currentCol < N - 1) {
-								if (B.cellState(row, currentCol + 1) == CXCellState.FREE) {
-									rowScore += 10000;
-								} else {
-									rowScore += 10;
-								}
-								col++;
-							} else {
-								rowScore += 10;
-							}
-							break;
-						}
-
-						// Scenario: P1 FREE FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							rowScore += 10;
-							break;
-						}
-
-						// Scenario: FREE P1 P1 P1
-						if (myPieces == X - 1 && freeSpaces == 1 && freeSpaceFirstPos == 0) {
-							if (currentCol < N - 1) {
-								if (B.cellState(row, currentCol + 1) == CXCellState.FREE) {
-									return 100000;
-								} else {
-									rowScore += 1000;
-								}
-								col++;
-							} else {
-								rowScore += 1000;
-							}
-							break;
-						}
-
-						// Scenario: P1 FREE P1 P1 or Scenario: P1 P1 FREE P1
-						if (myPieces == X - 1 && freeSpaces == 1) {
-							rowScore += 1000;
-							break;
-						}
-					} else if (B.cellState(row, currentCol) == otherPlayer) {
-						break;
-					} else if (B.cellState(row, currentCol) == CXCellState.FREE) {
-						if (freeSpaces == 0) {
-							freeSpaceFirstPos = i;
-						} else if (freeSpaces >= X - 2) {
-							if (myPieces > 0) {
-								rowScore += 1;
-							}
-							break;
-						}
-						freeSpaces++;
-						freeSpaceLastPos = i;
-
-						// Scenario: P1 P1 P1 FREE
-						if (myPieces == X - 1) {
-							if (col != 0) {
-								if (B.cellState(row, currentCol - X) == CXCellState.FREE) {
-									return 100000;
-								} else {
-									rowScore += 1000;
-								}
-							} else {
-								rowScore += 1000;
-							}
-							break;
-						}
-
-						// Scenario: FREE P1 P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2 && freeSpaceFirstPos == 0) {
-							if (currentCol != N - 1) {
-								if (B.cellState(row, currentCol + 1) == CXCellState.FREE) {
-									rowScore += 10000;
-								} else {
-									rowScore += 10;
-								}
-								col++;
-							} else {
-								rowScore += 10;
-							}
-							break;
-						}
-
-						// Scenario: P1 FREE P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2) {
-							rowScore += 10;
-							break;
-						}
-
-						// Scenario: P1 P1 FREE FREE
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							rowScore += 10;
-							break;
-						}
-					}
-				}
+	// Principal variation search at the root: the moves are searched in the order of rootMoves, the score of each
+	// one is recorded in rootScores (an upper bound for moves that failed low) and the best move in bestRootMove
+	private int rootSearch(CXBoard B, int depth, int alpha, int beta) {
+		int eval = -INFINITY;
+		int alphaOrig = alpha;
+		MoveOrdering order = orderings[0];
+		IncrementalEvaluator evaluator = evaluators[0];
+		evaluator.sync(B);
+		bestRootMove = rootMoves[0];
+		for (int k = 0; k < rootMoveCount; k++) {
+			int col = rootMoves[k];
+			B.play(col);
+			evaluator.mark(B, col);
+			int score;
+			if (k == 0) {
+				score = -pvs(B, order, evaluator, depth - 1, 1, -beta, -alpha);
+			} else {
+				score = -pvs(B, order, evaluator, depth - 1, 1, -alpha - 1, -alpha);
+				if (score > alpha && score < beta)
+					score = -pvs(B, order, evaluator, depth - 1, 1, -beta, -alpha);
+			}
+			B.undo();
+			evaluator.unmark(B, col);
+			rootScores[k] = score;
+			if (score > eval) {
+				eval = score;
+				bestRootMove = col;
 			}
+			alpha = Math.max(alpha, eval);
+			if (alpha >= beta || clock.stopped())
+				break;
 		}
-		return rowScore;
+		if (!clock.stopped()) {
+			int bound = eval <= alphaOrig ? TranspositionTable.UPPER : eval >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			transpositionTable.store(B.canonicalHash(), toTable(eval, 0), depth, bound, B.canonicalColumn(bestRootMove));
+		}
+		return eval;
 	}
 
 
-	// Checks the formed connections in columns and calculate a score
-	private double countColumns(CXBoard B, boolean myTurn) {
-		CXCellState player = myTurn ? CXCellState.P1 : CXCellState.P2;
-		CXCellState otherPlayer = myTurn ? CXCellState.P2 : CXCellState.P1;
-		double colScore = 0.0;
+	// Principal variation search (negamax alpha-beta): the first move is searched with the full window, the others
+	// with a null window that only proves them worse than the best one; a move that fails high is searched again
+	// with the full window to get its real score. Returns the score for the player to move, ply plies below the root.
+	// The moves are sorted by the given MoveOrdering and the leaves evaluated by the given evaluator, owned by the calling thread
+	int pvs(CXBoard B, MoveOrdering order, IncrementalEvaluator evaluator, int depth, int ply, int alpha, int beta) {
+		int eval;  	// best score found
+		int bestCol = -1;  	// move that produced eval
+		// key corresponding to the current game state, maintained by the board with Zobrist Hashing: the canonical key
+		// is shared with the mirrored position, which has the same score, and the moves stored with it are mirrored too
+		long boardHash = B.canonicalHash();
+		
+		// check if the hash table already contains the evaluation of the current game state
+		long entry = transpositionTable.probe(boardHash);
+		int ttMove = B.canonicalColumn(TranspositionTable.move(entry));  	// best move found by a previous search, searched first (-1 if absent)
+		if (entry != 0 && TranspositionTable.depth(entry) >= depth) {
+			// the stored value can be used only if it was searched at least as deep as requested
+			int score = fromTable(TranspositionTable.score(entry), ply);
+			int bound = TranspositionTable.bound(entry);
+			if (bound == TranspositionTable.EXACT)
+				return score;
+			if (bound == TranspositionTable.LOWER)
+				alpha = Math.max(alpha, score);
+			else
+				beta = Math.min(beta, score);
+			if (beta <= alpha)
+				return score;
+		}
+		int alphaOrig = alpha;  	// window used to classify the result as exact value or bound
+		
+		// if the game is no longer open, the score is exact at any depth
+		if (B.gameState() != CXGameState.OPEN) {
+			eval = score(B, evaluator, ply);
+			transpositionTable.store(boardHash, toTable(eval, ply), TranspositionTable.MAX_DEPTH, TranspositionTable.EXACT, -1);
+			return eval;
+		}
+
+		// if the available time expires (or the main thread stopped the helpers), return at once: the result of a stopped
+		// search is discarded, so there is no point in evaluating the game state
+		if (outOfTime())
+			return 0;
 
-		for (int col = 0; col < N; col++) {
-			int myPieces = 0;
+		// if depth reaches 0, then evaluate the game state
+		if (depth <= 0) {
+			eval = score(B, evaluator, ply);
+			transpositionTable.store(boardHash, toTable(eval, ply), 0, TranspositionTable.EXACT, -1);
+			return eval;
+		}
 
-			for (int row = M - 1; row >= X - 1; row--) {
-				if (B.cellState(row, col) == player) {
-					myPieces++;
-				} else if (B.cellState(row, col) == otherPlayer) {
-					myPieces = 0;
+		eval = -INFINITY;
+		// check available columns, starting from the best move of the transposition table, then the killer moves and the history
+		evaluator.sync(B);  	// the evaluator follows the moves from here on
+		int count = order.sort(B, ply, ttMove);
+		int[] moves = order.moves(ply);
+		for (int k = 0; k < count; k++) {
+			int col = moves[k];
+			// simulate the move (the columns come from the board, so the unchecked play is enough): a winning move is
+			// scored at once, without searching the ended game after it
+			int score;
+			if (B.play(col)) {
+				score = WIN - (ply + 1);
+				B.undo();
+			} else {
+				evaluator.mark(B, col);
+				if (k == 0) {
+					score = -pvs(B, order, evaluator, depth - 1, ply + 1, -beta, -alpha);
 				} else {
-					if (myPieces > 0) {
-						colScore += Math.pow(10, myPieces - 1);
-					}
-					break;
+					score = -pvs(B, order, evaluator, depth - 1, ply + 1, -alpha - 1, -alpha);
+					if (score > alpha && score < beta)
+						score = -pvs(B, order, evaluator, depth - 1, ply + 1, -beta, -alpha);
 				}
+				// remove the move
+				B.undo();
+				evaluator.unmark(B, col);
+			}
+			// a stopped search unwinds without searching the other moves, and without storing its incomplete result
+			if (clock.stopped())
+				return 0;
+			if (score > eval || bestCol == -1) {
+				eval = score;
+				bestCol = col;
+			}
+			alpha = Math.max(alpha, eval);
+			// check if pruning is possible, and remember the move that caused it
+			if (alpha >= beta) {
+				order.cutoff(B, ply, depth, col, k);
+				break;
 			}
 		}
 
-		return colScore;
+		// before returning the score, store it in the transposition table together with the kind of value found:
+		// a score outside the original window is only a bound of the real one
+		int bound;
+		if (eval <= alphaOrig)
+			bound = TranspositionTable.UPPER;
+		else if (eval >= beta)
+			bound = TranspositionTable.LOWER;
+		else
+			bound = TranspositionTable.EXACT;
+		transpositionTable.store(boardHash, toTable(eval, ply), depth, bound, B.canonicalColumn(bestCol));
+		return eval;
+	}	
+
+
+	// Score of a position for the player to move, ply plies below the root: exact for ended games and immediate threats,
+	// heuristic otherwise
+	int score(CXBoard B, IncrementalEvaluator evaluator, int ply) {
+		if (B.gameState() == CXGameState.DRAW)
+			return 0;
+		if (B.gameState() != CXGameState.OPEN)
+			return -(WIN - ply);  	// the game has been won by the player who moved last
+		// a position decided by the next two moves is scored exactly (inside the search the move ordering only searches
+		// the moves that don't lose at once, so the same threats are found there without this check)
+		int tactical = tacticalScore(B, ply);
+		if (tactical != 0)
+			return tactical;
+		// the heuristic evaluation is for our player
+		int score = evaluate(B, evaluator);
+		return B.currentPlayer() == (P1 ? 0 : 1) ? score : -score;
 	}
 
-	
-	// Checks the formed connections in diagonals and calculate a score
-	private double countDiagonals(CXBoard B, boolean myTurn) {
-		CXCellState myPlayer = myTurn ? CXCellState.P1 : CXCellState.P2;
-		CXCellState otherPlayer = myTurn ? CXCellState.P2 : CXCellState.P1;
-		double diagScore = 0.0;
-
-		// From bottom left to top right
-		for (int row = M - 1; row >= X - 1; row--) {
-			for (int col = 0; col <= N - X; col++) {
-				int myPieces = 0;
-				int myPieceLastPos = -1;
-				int freeSpaces = 0;
-				int freeSpaceFirstPos = -1;
-				int freeSpaceLastPos = -1;
-
-				for (int i = 0; i < X; i++) {
-					int currentCol = col + i;
-					int currentRow = row - i;
-
-					if (B.cellState(currentRow, currentCol) == myPlayer) {
-						myPieces++;
-						myPieceLastPos = i;
-
-						// Scenario FREE P1 FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == X - 2) {
-							if (currentCol != N - 1 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol + 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// Scenario FREE FREE P1 P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == 1) {
-							if (currentCol != N - 1 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol + 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// Scenario P1 FREE FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							diagScore += 10;
-							break;
-						}
-						// Scenario FREE P1 P1 P1
-						if (myPieces == X - 1 && freeSpaces == 1 && freeSpaceFirstPos == 0) {
-							if (currentCol != N - 1 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol + 1) == CXCellState.FREE) {
-									return 100000;
-								} else {
-									diagScore += 1000;
-								}
-							} else {
-								diagScore += 1000;
-							}
-							break;
-						}
-						// Scenario P1 FREE P1 P1 or Scenario P1 P1 FREE P1
-						if (myPieces == X - 1 && freeSpaces == 1) {
-							diagScore += 1000;
-							break;
-						}
-					} else if (B.cellState(currentRow, currentCol) == otherPlayer) {
-						break;
-					} else if (B.cellState(currentRow, currentCol) == CXCellState.FREE) {
-						if (freeSpaces == 0) {
-							freeSpaceFirstPos = i;
-						} else if (freeSpaces >= X - 2) {
-							if (myPieces > 0) {
-								diagScore += 1;
-							}
-							break;
-						}
-						freeSpaces++;
-						freeSpaceLastPos = i;
-
-						// scenario FREE P1 P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2 && freeSpaceFirstPos == 0) {
-							if (currentCol != N - 1 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol + 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// scenario P1 FREE P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2) {
-							diagScore += 10;
-							break;
-						}
-						// scenario P1 P1 FREE FREE 
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							diagScore+= 10;
-							break;
-						}
-						// scenario P1 P1 P1 FREE
-						if (myPieces == X - 1) {
-							diagScore += 1000;
-							break;
-						}
-					}
-				}
-			}
-		}
 
-		// From bottom right to top left
-		for (int row = M - 1; row >= X - 1; row--) {
-			for (int col = N - 1; col >= X - 1; col--) {
-				int myPieces = 0;
-				int freeSpaces = 0;
-				int myPieceLastPos = -1;
-				int freeSpaceFirstPos = -1;
-				int freeSpaceLastPos = -1;
-
-				for (int i = 0; i < X; i++) {
-					int currentCol = col - i;
-					int currentRow = row - i;
-
-					if (B.cellState(currentRow, currentCol) == myPlayer) {
-						myPieces++;
-						myPieceLastPos = i;
-
-						// Scenario FREE P1 FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == X - 2) {
-							if (currentCol != 0 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol - 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// Scenario FREE FREE P1 P1
-						if (myPieces == X - 2 && freeSpaces == 2 && freeSpaceFirstPos == 0 && freeSpaceLastPos == 1) {
-							if (currentCol != 0 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol - 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// Scenario P1 FREE FREE P1
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							diagScore += 10;
-							break;
-						}
-						// Scenario FREE P1 P1 P1
-						if (myPieces == X - 1 && freeSpaces == 1 && freeSpaceFirstPos == 0) {
-							if (currentCol != 0 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol - 1) == CXCellState.FREE) {
-									return 100000;
-								} else {
-									diagScore += 1000;
-								}
-							} else {
-								diagScore += 1000;
-							}
-							break;
-						}
-						// Scenario P1 FREE P1 P1 or Scenario P1 P1 FREE P1
-						if (myPieces == X - 1 && freeSpaces == 1) {
-							diagScore += 1000;
-							break;
-						}
-					} else if (B.cellState(currentRow, currentCol) == otherPlayer) {
-						break;
-					} else if (B.cellState(currentRow, currentCol) == CXCellState.FREE) {
-						if (freeSpaces == 0) {
-							freeSpaceFirstPos = i;
-						} else if (freeSpaces >= X - 2) {
-							if (myPieces > 0) {
-								diagScore += 1;
-							}
-							break;
-						}
-						freeSpaces++;
-						freeSpaceLastPos = i;
-
-						// Scenario FREE P1 P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2 && freeSpaceFirstPos == 0) {
-							if (currentCol != 0 && currentRow != 0) {
-								if (B.cellState(currentRow - 1, currentCol - 1) == CXCellState.FREE) {
-									diagScore += 10000;
-								} else {
-									diagScore += 10;
-								}
-							} else {
-								diagScore += 10;
-							}
-							break;
-						}
-						// Scenario P1 FREE P1 FREE
-						if (myPieces == X - 2 && freeSpaces == 2 && myPieceLastPos == X - 2) {
-							diagScore += 10;
-							break;
-						}
-						// Scenario P1 P1 FREE FREE
-						if (myPieces == X - 2 && freeSpaces == 2) {
-							diagScore += 10;
-							break;
-						}
-						// Scenario P1 P1 P1 FREE
-						if (myPieces == X - 1) {
-							diagScore += 1000;
-							break;
-						}
-					}
-				}
-			}
-		}
-		return diagScore;
+	// Exact score, for the player to move, of an open position decided by the next two moves: the player to move wins at
+	// once, or every move lets the opponent win at once. Returns 0 if the position isn't decided so soon
+	int tacticalScore(CXBoard B, int ply) {
+		if (B.numOfWinningColumns(B.currentPlayer()) > 0)
+			return WIN - (ply + 1);
+		if (B.numOfNonLosingColumns() == 0)
+			return -(WIN - (ply + 2));
+		return 0;
 	}
 
 
-	// Check for major threats in the current state
-	private boolean checkForMajorThreats(CXBoard B, boolean myTurn) {
-		CXGameState win = myTurn ? CXGameState.WINP1 : CXGameState.WINP2;
-		
-		// iterate through the columns
-		for (int col = 0; col < N; col++) {
-			if (!B.fullColumn(col)) {
-				// simulate the move
-				B.markColumn(col);
-
-				// check if it leads to victory, if yes, remove the move and return true
-				if (B.gameState() == win) {
-					B.unmarkColumn();
-					return true;
-				}
+	// Winning scores are stored in the transposition table as distance from the stored position, not from the root
+	static int toTable(int score, int ply) {
+		if (score >= WIN_MIN)
+			return score + ply;
+		if (score <= -WIN_MIN)
+			return score - ply;
+		return score;
+	}
 
-				// remove the move
-				B.unmarkColumn();
-			}
-		}
 
-		// if no move leads to victory, return false
-		return false;
+	// Converts a score read from the transposition table back to a score relative to the root
+	static int fromTable(int score, int ply) {
+		if (score >= WIN_MIN)
+			return score - ply;
+		if (score <= -WIN_MIN)
+			return score + ply;
+		return score;
 	}
-	
+
+
+	// Returns true when the search has to stop: the available time expired or the main thread stopped the helpers
+	boolean outOfTime() {
+		return clock.expired();
+	}
+
+
+	// Returns true if the search has been stopped, without reading the clock
+	boolean stopped() {
+		return clock.stopped();
+	}
+
+
+	// Heuristic value of the position for our player, between -EVAL_MAX and EVAL_MAX: only the search proves wins and
+	// losses (scored WIN - ply), so a heuristic value is never confused with a won position
+	int evaluate(CXBoard B, IncrementalEvaluator evaluator) {
+		// the ended games and the immediate threats have already been scored exactly by score (tacticalScore)
+		long connections = evaluator.score(B);  // value of the lines that can still be completed, for the first player
+		if (!P1)
+			connections = -connections;
+		return (int) Math.max(-EVAL_MAX, Math.min(EVAL_MAX, connections));
+	}	
 
 	
 	public String playerName() {